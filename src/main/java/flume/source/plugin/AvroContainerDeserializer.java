@@ -0,0 +1,195 @@
+package flume.source.plugin;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Records of an avro object container file. Like Flume's AvroEventDeserializer the body of
+ * the event is the binary encoded datum and header {@value #SCHEMA_HASH_HEADER} holds the
+ * CRC-64-AVRO fingerprint of the schema.
+ * A container file can only be entered at the start of a block, so a position is the block
+ * start (as returned by DataFileReader.previousSync) shifted left by {@value #INDEX_BITS}
+ * bits plus the number of records read of that block, which are skipped on seek.
+ * Blocks still being written are read once they are complete.
+ */
+public class AvroContainerDeserializer implements RecordDeserializer {
+    public static final String SCHEMA_HASH_HEADER = "flume.avro.schema.hash";
+    private static final int INDEX_BITS = 20;
+    private static final long MAX_INDEX = (1L << INDEX_BITS) - 1;
+
+    private final LineReader input;
+    private DataFileReader<Object> fileReader = null;
+    private GenericDatumWriter<Object> datumWriter;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private BinaryEncoder encoder = null;
+    private String schemaHash;
+    private Object datum = null;
+    // 最近返回的记录所在块的起始位置（未返回过记录时为0）及该块已返回的记录数
+    private long blockStart = 0;
+    private long index = 0;
+    // 读到文件末尾或未写完的块后，文件变大时重新定位到blockStart
+    private boolean resync = true;
+    // 上次定位时的文件大小，之后写入的块可能未被容器reader看到
+    private long positionedSize = -1;
+    private long endOfFileSize = -1;
+
+    public AvroContainerDeserializer(LineReader input) {
+        this.input = input;
+    }
+
+    @Override
+    public Event readEvent(boolean acceptPartial) throws IOException {
+        if (resync && !resync(false)) {
+            return null;
+        }
+        if (!next()) {
+            // 定位后文件变大时重新定位再读一次
+            if (input.size() == positionedSize || !resync(true) || !next()) {
+                atEndOfFile();
+                return null;
+            }
+        }
+        if (++index > MAX_INDEX) {
+            throw new IOException("avro block at position " + blockStart + " of file:" + input.getFile()
+                    + " has more than " + MAX_INDEX + " records");
+        }
+        output.reset();
+        encoder = EncoderFactory.get().binaryEncoder(output, encoder);
+        datumWriter.write(datum, encoder);
+        encoder.flush();
+        LineEvent event = new LineEvent(output.toByteArray());
+        event.getHeaders().put(SCHEMA_HASH_HEADER, schemaHash);
+        return event;
+    }
+
+    @Override
+    public boolean isCorrupt() {
+        return false;
+    }
+
+    @Override
+    public long getPosition() {
+        return (blockStart << INDEX_BITS) | index;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        blockStart = position >>> INDEX_BITS;
+        index = position & MAX_INDEX;
+        resync = true;
+        endOfFileSize = -1;
+    }
+
+    /**
+     * read the next datum, blockStart and index are updated except for the increment
+     * @return false at the end of the file or of the written data
+     */
+    private boolean next() throws IOException {
+        try {
+            if (!fileReader.hasNext()) {
+                return false;
+            }
+            long sync = fileReader.previousSync();
+            datum = fileReader.next(datum);
+            if (sync != blockStart) {
+                blockStart = sync;
+                index = 0;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (AvroRuntimeException e) {
+            // 块未写完
+            return false;
+        }
+    }
+
+    private void atEndOfFile() {
+        resync = true;
+        endOfFileSize = positionedSize;
+    }
+
+    /**
+     * position the container reader after the last returned record
+     * @param force also if the file did not grow since the end was reached
+     * @return false if the file did not grow, or its header is incomplete
+     */
+    private boolean resync(boolean force) throws IOException {
+        long size = input.size();
+        if (!force && endOfFileSize >= 0 && size == endOfFileSize) {
+            return false;
+        }
+        positionedSize = size;
+        try {
+            if (fileReader == null || blockStart == 0) {
+                input.seek(0);
+                fileReader = new DataFileReader<Object>(new Input(), new GenericDatumReader<Object>());
+                Schema schema = fileReader.getSchema();
+                datumWriter = new GenericDatumWriter<Object>(schema);
+                schemaHash = hex(SchemaNormalization.parsingFingerprint("CRC-64-AVRO", schema));
+            }
+            if (blockStart > 0) {
+                fileReader.seek(blockStart);
+                for (long i = 0; i < index; i++) {
+                    datum = fileReader.next(datum);
+                }
+            }
+        } catch (IOException e) {
+            // 文件头未写完
+            atEndOfFile();
+            return false;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        resync = false;
+        endOfFileSize = -1;
+        return true;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    /** the line reader as avro input, so reads share its buffer and position **/
+    private class Input implements SeekableInput {
+        @Override
+        public void seek(long position) throws IOException {
+            input.seek(position);
+        }
+
+        @Override
+        public long tell() throws IOException {
+            return input.getPosition();
+        }
+
+        @Override
+        public long length() throws IOException {
+            return input.size();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return input.read(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
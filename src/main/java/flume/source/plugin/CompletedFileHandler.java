@@ -0,0 +1,151 @@
+package flume.source.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renames, moves or deletes files which have been read completely, in a background thread,
+ * so the spool directory (and every directory listing of the reader) stays small.
+ * A file is handed over when the reader switched to a newer file, and only acted on after
+ * the offset pointing behind it has been saved, plus a grace period.
+ * Before acting the file is checked to still be the same (inode) and unmodified.
+ * Files still waiting when the source stops are left in place.
+ */
+public class CompletedFileHandler {
+    private static final Logger logger = LoggerFactory.getLogger(CompletedFileHandler.class);
+
+    private final CompletionPolicy policy;
+    private final String completedSuffix;
+    private final File archiveDirectory;
+    private final long graceMillis;
+    private final SpoolingDirManager spoolingDirManager;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /** finished files whose offset has not been saved yet **/
+    private final List<CompletedFile> pending = new ArrayList<CompletedFile>();
+
+    public CompletedFileHandler(CompletionPolicy policy, String completedSuffix, String archiveDirectory,
+                                long graceMillis, SpoolingDirManager spoolingDirManager) {
+        if (policy == CompletionPolicy.RENAME && (completedSuffix == null || completedSuffix.isEmpty())) {
+            throw new IllegalArgumentException("completedSuffix must be set for completion policy RENAME");
+        }
+        if (policy == CompletionPolicy.MOVE && (archiveDirectory == null || archiveDirectory.isEmpty())) {
+            throw new IllegalArgumentException("archiveDir must be set for completion policy MOVE");
+        }
+        this.policy = policy;
+        this.completedSuffix = completedSuffix;
+        this.archiveDirectory = archiveDirectory == null || archiveDirectory.isEmpty()
+                ? null : new File(archiveDirectory);
+        this.graceMillis = graceMillis;
+        this.spoolingDirManager = spoolingDirManager;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            private final ThreadFactory delegate = Executors.defaultThreadFactory();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = delegate.newThread(runnable);
+                thread.setName("reliable-tail-completion-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * the reader has read file completely and moved on to a newer file
+     */
+    public synchronized void fileFinished(File file, int inode) {
+        pending.add(new CompletedFile(file, inode, file.lastModified()));
+    }
+
+    /**
+     * the offset after the finished files has been saved, schedule them
+     */
+    public synchronized void offsetSaved() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (final CompletedFile completedFile : pending) {
+            logger.info("file:{} completed. will {} it after {} ms", new Object[] {
+                    completedFile.file, policy, graceMillis});
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    complete(completedFile);
+                }
+            }, graceMillis, TimeUnit.MILLISECONDS);
+        }
+        pending.clear();
+    }
+
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void complete(CompletedFile completedFile) {
+        File file = completedFile.file;
+        try {
+            if (!file.exists()) {
+                logger.info("completed file:{} does not exist any more.", file);
+                return;
+            }
+            if (spoolingDirManager.getFileInode(file) != completedFile.inode
+                    || file.lastModified() != completedFile.lastModified) {
+                logger.warn("completed file:{} was replaced or modified. will leave it.", file);
+                return;
+            }
+            Path source = file.toPath();
+            switch (policy) {
+                case RENAME:
+                    Files.move(source, source.resolveSibling(file.getName() + completedSuffix));
+                    break;
+                case MOVE:
+                    if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs()) {
+                        throw new IOException("cannot create archive directory:" + archiveDirectory);
+                    }
+                    File target = new File(archiveDirectory, file.getName());
+                    if (target.exists()) {
+                        target = new File(archiveDirectory, file.getName() + "." + System.currentTimeMillis());
+                    }
+                    Files.move(source, target.toPath());
+                    break;
+                case DELETE:
+                    Files.delete(source);
+                    break;
+                default:
+                    return;
+            }
+            logger.info("completed file:{} handled with policy {}", file, policy);
+        } catch (IOException e) {
+            logger.error("handle completed file:" + file + " with policy " + policy + " failed.", e);
+        }
+    }
+
+    private static class CompletedFile {
+        private final File file;
+        private final int inode;
+        private final long lastModified;
+
+        CompletedFile(File file, int inode, long lastModified) {
+            this.file = file;
+            this.inode = inode;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package flume.source.plugin;
+
+/**
+ * What to do with a file which has been read completely and checkpointed.
+ */
+public enum CompletionPolicy {
+    /** leave the file in the spool directory **/
+    NONE,
+    /** rename the file with completedSuffix, renamed files are ignored **/
+    RENAME,
+    /** move the file to archiveDir **/
+    MOVE,
+    /** delete the file **/
+    DELETE
+}
@@ -0,0 +1,136 @@
+package flume.source.plugin;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cached snapshot of the files below a directory, down to maxDepth levels of subdirectories.
+ * A directory is only listed again (with a one level walkFileTree) when its modified time
+ * changed, so an unchanged tree costs one stat per directory instead of a full walk.
+ * The modified time of a directory only changes when entries are added, removed or
+ * renamed directly in it; subdirectories are checked on their own.
+ * Only regular files are kept, so callers need not stat them for their type. Their modified
+ * times are not kept: writing to a file does not change the modified time of its directory,
+ * so the snapshot cannot tell whether a file was written since it was listed. A lookup by
+ * modified time therefore still costs one stat per candidate file.
+ * Hidden directories are not entered.
+ */
+public class DirectoryTree {
+    // 目录修改时间距扫描时间小于该值时，下次仍重新扫描，避免文件系统时间精度导致遗漏变更
+    private static final long MODIFIED_TIME_GRANULARITY_MS = 2000;
+
+    private final Node root;
+    private final int maxDepth;
+    private final FileFilter fileFilter;
+
+    /** cached listing of one directory **/
+    private static class Node {
+        private final Path directory;
+        private final int depth;
+        private long modified = -1;
+        private long scanned = 0;
+        private List<File> files = new ArrayList<File>();
+        private Map<Path, Node> children = new HashMap<Path, Node>();
+
+        Node(Path directory, int depth) {
+            this.directory = directory;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * @param directory root directory
+     * @param maxDepth levels of subdirectories to enter, 0 lists directory only
+     * @param fileFilter accepts the regular files of the snapshot
+     */
+    public DirectoryTree(File directory, int maxDepth, FileFilter fileFilter) {
+        this.root = new Node(directory.toPath(), 0);
+        this.maxDepth = maxDepth;
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * refresh the changed directories and return all accepted files
+     */
+    public synchronized List<File> files() throws IOException {
+        refresh(root);
+        List<File> files = new ArrayList<File>();
+        collect(root, files);
+        return files;
+    }
+
+    private void refresh(Node node) throws IOException {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(node.directory).toMillis();
+        } catch (IOException e) {
+            if (node == root) {
+                throw e;
+            }
+            // 子目录已删除
+            node.files = new ArrayList<File>();
+            node.children = new HashMap<Path, Node>();
+            node.modified = -1;
+            return;
+        }
+        if (modified != node.modified || node.scanned - modified < MODIFIED_TIME_GRANULARITY_MS) {
+            scan(node, modified);
+        }
+        for (Node child : node.children.values()) {
+            refresh(child);
+        }
+    }
+
+    private void scan(final Node node, long modified) throws IOException {
+        final long scanned = System.currentTimeMillis();
+        final List<File> files = new ArrayList<File>();
+        final Map<Path, Node> children = new HashMap<Path, Node>();
+        Files.walkFileTree(node.directory, EnumSet.noneOf(FileVisitOption.class), 1,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                        if (attributes.isDirectory()) {
+                            if (node.depth < maxDepth && !path.getFileName().toString().startsWith(".")) {
+                                Node child = node.children.get(path);
+                                children.put(path, child != null ? child : new Node(path, node.depth + 1));
+                            }
+                        } else if (attributes.isRegularFile()) {
+                            File file = path.toFile();
+                            if (fileFilter.accept(file)) {
+                                files.add(file);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        // 扫描期间被删除的文件
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        node.files = files;
+        node.children = children;
+        node.modified = modified;
+        node.scanned = scanned;
+    }
+
+    private static void collect(Node node, List<File> files) {
+        files.addAll(node.files);
+        for (Node child : node.children.values()) {
+            collect(child, files);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package flume.source.plugin;
+
+/**
+ * What to do with lines repeated within the duplicate window.
+ */
+public enum DuplicatePolicy {
+    /** duplicate suppression disabled **/
+    NONE,
+    /** drop repeated lines **/
+    DROP,
+    /** drop repeated lines and emit one summary event with the repeat count **/
+    COLLAPSE
+}
@@ -0,0 +1,255 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Drops lines repeated within a time and/or line window using a fixed size, direct mapped
+ * hash table: memory does not depend on the volume or the number of distinct lines.
+ * A slot remembers the 64 bit hash of the first occurrence of a line, when and at which
+ * line it was seen, how often it was repeated since, and a short sample of its body with
+ * its timestamp and route.
+ * When a slot with repeats expires or is taken by another line, a summary event
+ * (sample as body, repeat count in the {@value #HEADER_COUNT} header, the timestamp and
+ * route headers of the line) is queued in COLLAPSE mode.
+ * At most one summary per slot is queued. While the queue is full the repeats stay counted
+ * in their slots: expired slots are summarized later, and a line whose slot still holds
+ * repeats is not remembered.
+ * Counts only live in memory, repeats not yet summarized are lost on restart.
+ * Not thread safe.
+ */
+public class DuplicateSuppressor {
+    public static final String HEADER_COUNT = "duplicateCount";
+    public static final String HEADER_FIRST_SEEN = "duplicateFirstSeen";
+
+    private static final int MAX_SAMPLE_LENGTH = 256;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final DuplicatePolicy policy;
+    private final long windowMillis;
+    private final long windowLines;
+    private final int mask;
+    private final String timestampHeader;
+    private final String routeHeader;
+
+    private final long[] hashes;
+    private final long[] firstSeenMillis;
+    private final long[] firstSeenLines;
+    private final int[] counts;
+    private final byte[][] samples;
+    private final long[] timestamps;
+    private final String[] routes;
+    private final boolean[] used;
+
+    private long lineNumber = 0;
+    /** slot taken by the last line which was not a duplicate **/
+    private int lastSlot = -1;
+    private final ArrayDeque<Event> summaries = new ArrayDeque<Event>();
+    // 有重复计数的位置数，及其中最早的首次出现时间和行号（可能偏小），用于跳过不会过期的扫描
+    private int repeatedSlots = 0;
+    private long oldestRepeatedMillis = Long.MAX_VALUE;
+    private long oldestRepeatedLine = Long.MAX_VALUE;
+
+    /**
+     * @param policy DROP or COLLAPSE
+     * @param windowMillis repeats within this time are suppressed, <= 0 no time limit
+     * @param windowLines repeats within this many lines are suppressed, <= 0 no line limit
+     * @param slots num of remembered lines, rounded up to a power of two
+     * @param timestampHeader header of summaries holding the timestamp of the line
+     * @param routeHeader header of summaries holding the route of the line
+     */
+    public DuplicateSuppressor(DuplicatePolicy policy, long windowMillis, long windowLines, int slots,
+                               String timestampHeader, String routeHeader) {
+        if (policy == DuplicatePolicy.NONE) {
+            throw new IllegalArgumentException("duplicate policy must not be NONE");
+        }
+        if (windowMillis <= 0 && windowLines <= 0) {
+            throw new IllegalArgumentException("duplicate window must be limited by time or lines");
+        }
+        if (slots <= 0 || slots > (1 << 24)) {
+            throw new IllegalArgumentException("duplicate slots must be in (0, 2^24]:" + slots);
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        this.policy = policy;
+        this.windowMillis = windowMillis;
+        this.windowLines = windowLines;
+        this.mask = size - 1;
+        this.timestampHeader = timestampHeader;
+        this.routeHeader = routeHeader;
+        this.hashes = new long[size];
+        this.firstSeenMillis = new long[size];
+        this.firstSeenLines = new long[size];
+        this.counts = new int[size];
+        this.samples = new byte[size][];
+        this.timestamps = new long[size];
+        this.routes = new String[size];
+        this.used = new boolean[size];
+    }
+
+    /**
+     * @param line decoded line
+     * @param now current time millis
+     * @return true if the line is a repeat and must be dropped.
+     *         if false, {@link #sample(byte[], int, int, long, String)} should be called with the line
+     */
+    public boolean isDuplicate(CharBuffer line, long now) {
+        return isDuplicate(hash(line), now);
+    }
+
+    /**
+     * same as {@link #isDuplicate(CharBuffer, long)} with the line hash computed by {@link #hash(CharBuffer)},
+     * possibly on another thread
+     */
+    public boolean isDuplicate(long hash, long now) {
+        lineNumber++;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        if (used[slot]) {
+            if (hashes[slot] == hash && inWindow(slot, now)) {
+                if (counts[slot] == 0) {
+                    repeatedSlots++;
+                    oldestRepeatedMillis = Math.min(oldestRepeatedMillis, firstSeenMillis[slot]);
+                    oldestRepeatedLine = Math.min(oldestRepeatedLine, firstSeenLines[slot]);
+                }
+                if (counts[slot] < Integer.MAX_VALUE) {
+                    counts[slot]++;
+                }
+                return true;
+            }
+            if (isQueueFull(slot)) {
+                // 汇总队列已满，保留该位置的计数，不记住该行
+                lastSlot = -1;
+                return false;
+            }
+            // 该位置的记录过期或被其他行占用，先输出汇总
+            evict(slot);
+        }
+        used[slot] = true;
+        hashes[slot] = hash;
+        firstSeenMillis[slot] = now;
+        firstSeenLines[slot] = lineNumber;
+        counts[slot] = 0;
+        samples[slot] = null;
+        timestamps[slot] = -1;
+        routes[slot] = null;
+        lastSlot = slot;
+        return false;
+    }
+
+    /**
+     * remember the last line which was not a duplicate, used as summary
+     * @param timestamp timestamp of the line, < 0 if it has none
+     * @param route route of the line, may be null
+     */
+    public void sample(byte[] bytes, int offset, int length, long timestamp, String route) {
+        if (lastSlot >= 0 && policy == DuplicatePolicy.COLLAPSE) {
+            samples[lastSlot] = Arrays.copyOfRange(bytes, offset, offset + Math.min(length, MAX_SAMPLE_LENGTH));
+            timestamps[lastSlot] = timestamp;
+            routes[lastSlot] = route;
+        }
+        lastSlot = -1;
+    }
+
+    /**
+     * queue summaries of the slots whose window has passed. returns at once while the
+     * oldest repeated line is still in its window
+     */
+    public void expire(long now) {
+        if (repeatedSlots == 0 || inWindow(oldestRepeatedMillis, oldestRepeatedLine, now)) {
+            return;
+        }
+        long oldestMillis = Long.MAX_VALUE;
+        long oldestLine = Long.MAX_VALUE;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (!used[slot] || counts[slot] == 0) {
+                continue;
+            }
+            if (!inWindow(slot, now)) {
+                if (isQueueFull(slot)) {
+                    // 队列已满，剩余的位置下次再过期，原下界仍有效
+                    return;
+                }
+                evict(slot);
+                used[slot] = false;
+            } else {
+                oldestMillis = Math.min(oldestMillis, firstSeenMillis[slot]);
+                oldestLine = Math.min(oldestLine, firstSeenLines[slot]);
+            }
+        }
+        oldestRepeatedMillis = oldestMillis;
+        oldestRepeatedLine = oldestLine;
+    }
+
+    /**
+     * move queued summary events to events, without exceeding maxEvents
+     */
+    public void drainSummaries(List<Event> events, int maxEvents) {
+        while (!summaries.isEmpty() && events.size() < maxEvents) {
+            events.add(summaries.poll());
+        }
+    }
+
+    private boolean inWindow(int slot, long now) {
+        return inWindow(firstSeenMillis[slot], firstSeenLines[slot], now);
+    }
+
+    private boolean inWindow(long firstSeenMillis, long firstSeenLine, long now) {
+        return (windowMillis <= 0 || now - firstSeenMillis < windowMillis)
+                && (windowLines <= 0 || lineNumber - firstSeenLine <= windowLines);
+    }
+
+    /**
+     * whether the summary of slot has no room in the queue
+     */
+    private boolean isQueueFull(int slot) {
+        return counts[slot] > 0 && policy == DuplicatePolicy.COLLAPSE && summaries.size() > mask;
+    }
+
+    private void evict(int slot) {
+        if (counts[slot] > 0) {
+            if (--repeatedSlots == 0) {
+                oldestRepeatedMillis = Long.MAX_VALUE;
+                oldestRepeatedLine = Long.MAX_VALUE;
+            }
+            if (policy == DuplicatePolicy.COLLAPSE) {
+                Event summary = new LineEvent(samples[slot] == null ? new byte[0] : samples[slot]);
+                summary.getHeaders().put(HEADER_COUNT, String.valueOf(counts[slot]));
+                summary.getHeaders().put(HEADER_FIRST_SEEN, String.valueOf(firstSeenMillis[slot]));
+                if (timestamps[slot] >= 0) {
+                    summary.getHeaders().put(timestampHeader, String.valueOf(timestamps[slot]));
+                }
+                if (routes[slot] != null) {
+                    summary.getHeaders().put(routeHeader, routes[slot]);
+                }
+                summaries.add(summary);
+            }
+        }
+        counts[slot] = 0;
+        samples[slot] = null;
+        routes[slot] = null;
+    }
+
+    /**
+     * hash of the decoded line, the table state is not used
+     */
+    public static long hash(CharBuffer line) {
+        long hash = FNV_OFFSET_BASIS;
+        int position = line.position();
+        int limit = line.limit();
+        for (int i = position; i < limit; i++) {
+            char c = line.get(i);
+            hash ^= c & 0xFF;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
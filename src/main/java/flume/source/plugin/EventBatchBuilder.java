@@ -0,0 +1,93 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Builds event bodies for the reader with as little garbage as possible.
+ * The encoder and its output buffer are pooled and reused for every line, only the
+ * exact-sized body array handed to the channel is allocated per event.
+ * The body array itself cannot be pooled: memory channel keeps a reference to it
+ * until the sink has taken the event.
+ * Not thread safe, one instance per reader.
+ */
+public class EventBatchBuilder {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final CharsetEncoder encoder;
+    private final float maxBytesPerChar;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    public EventBatchBuilder(Charset outputCharset) {
+        this.encoder = outputCharset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxBytesPerChar = encoder.maxBytesPerChar();
+    }
+
+    /**
+     * build an event whose body is the encoded line
+     * @param line line content
+     * @return event
+     */
+    public Event build(CharSequence line) {
+        return new LineEvent(encode(line));
+    }
+
+    /**
+     * build an event whose body is a copy of the raw line bytes, used when the line is
+     * already in the output charset
+     */
+    public Event build(LineBuffer line) {
+        return new LineEvent(line.toByteArray());
+    }
+
+    /**
+     * encode the line into the pooled buffer and return a copy of exactly the encoded bytes
+     */
+    public byte[] encode(CharSequence line) {
+        ByteBuffer encoded = encodeToBuffer(line);
+        byte[] body = new byte[encoded.position()];
+        System.arraycopy(encoded.array(), 0, body, 0, body.length);
+        return body;
+    }
+
+    /**
+     * encode the line into the pooled buffer without copying. the encoded bytes are
+     * [0, position) of the returned buffer, which is only valid until the next call
+     */
+    public ByteBuffer encodeToBuffer(CharSequence line) {
+        int required = (int) Math.ceil(line.length() * maxBytesPerChar);
+        if (buffer.capacity() < required) {
+            buffer = ByteBuffer.allocate(Math.max(required, buffer.capacity() << 1));
+        }
+        buffer.clear();
+        encoder.reset();
+        CharBuffer in = CharBuffer.wrap(line);
+        CoderResult result = encoder.encode(in, buffer, true);
+        if (!result.isUnderflow()) {
+            throwEncodeException(result);
+        }
+        result = encoder.flush(buffer);
+        if (!result.isUnderflow()) {
+            throwEncodeException(result);
+        }
+        return buffer;
+    }
+
+    private static void throwEncodeException(CoderResult result) {
+        try {
+            result.throwException();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException("encode line failed", e);
+        }
+        throw new IllegalStateException("encode line failed:" + result);
+    }
+}
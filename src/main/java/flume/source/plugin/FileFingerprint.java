@@ -0,0 +1,98 @@
+package flume.source.plugin;
+
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+
+/**
+ * Identity of a file by content: a hash of its first bytes plus the number of bytes hashed,
+ * written as "hash:length". Unlike the inode it survives copies, and it tells a file apart
+ * from a later file which got the inode of a deleted one.
+ * A file shorter than the configured length is hashed over all its bytes, the fingerprint
+ * is taken again once it grew.
+ */
+public class FileFingerprint {
+    private final long hash;
+    private final int length;
+
+    public FileFingerprint(long hash, int length) {
+        this.hash = hash;
+        this.length = length;
+    }
+
+    public long getHash() { return hash; }
+    public int getLength() { return length; }
+
+    /**
+     * @param maxBytes bytes to hash at most
+     * @return null if the file is empty or cannot be read
+     */
+    public static FileFingerprint of(File file, int maxBytes) {
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                int length = (int) Math.min(maxBytes, input.length());
+                if (length <= 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                return new FileFingerprint(hash(bytes, length), length);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * whether the first bytes of file are the ones this fingerprint was taken of
+     */
+    public boolean matches(File file) {
+        FileFingerprint current = of(file, length);
+        return current != null && current.equals(this);
+    }
+
+    /**
+     * @return null if text is null or empty
+     */
+    public static FileFingerprint parse(String text) throws NumberFormatException {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        int separator = text.indexOf(':');
+        if (separator < 0) {
+            throw new NumberFormatException("fingerprint must be <hash:length>:" + text);
+        }
+        // 无符号十六进制
+        return new FileFingerprint(new BigInteger(text.substring(0, separator), 16).longValue(),
+                Integer.parseInt(text.substring(separator + 1)));
+    }
+
+    private static long hash(byte[] bytes, int length) {
+        return Hashing.murmur3_128().hashBytes(bytes, 0, length).asLong();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof FileFingerprint)) {
+            return false;
+        }
+        FileFingerprint that = (FileFingerprint) other;
+        return hash == that.hash && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32)) * 31 + length;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(hash) + ":" + length;
+    }
+}
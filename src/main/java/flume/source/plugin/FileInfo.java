@@ -1,51 +1,160 @@
 package flume.source.plugin;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 
 /**
  * Created by jiandaohong on 2015/9/25.
  */
 public class FileInfo {
+    public static final int DEFAULT_TAIL_BUFFER_SIZE = 8192;
+
     private final File file;
     private long lastModified;
-    private BufferedReader bufferedReader;
+    private final LineReader lineReader;
+    // 是否处于追赶模式（大缓冲区顺序读取已关闭的旧文件）
+    private boolean catchUpMode = false;
+    // 非文本行格式的记录读取，按行读取时为null
+    private RecordDeserializer deserializer = null;
 
     public FileInfo(File file) throws FileNotFoundException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
         this.file = file;
         this.lastModified = file.lastModified();
-        FileReader fileReader = new FileReader(file);
-        this.bufferedReader = new BufferedReader(fileReader);
+        this.lineReader = new LineReader(file, DEFAULT_TAIL_BUFFER_SIZE);
     }
 
     public long getLastModified() {
         this.lastModified = file.lastModified();
         return lastModified;
     }
-    public BufferedReader getBufferedReader() { return bufferedReader; }
+    public LineReader getLineReader() { return lineReader; }
     public File getFile() { return file; }
+    public boolean isCatchUpMode() { return catchUpMode; }
+    public RecordDeserializer getDeserializer() { return deserializer; }
 
-    public void resetBufferedReader(long offset) throws IOException {
-        this.bufferedReader = new BufferedReader(new FileReader(file));
-        while (offset-- > 0) {
-            if (bufferedReader.readLine() == null) {
+    /**
+     * read records of format instead of lines. offsets are then positions of the deserializer
+     * @param maxRecordLength longer records are dropped or treated as corrupt
+     */
+    public void useRecordFormat(RecordFormat format, int maxRecordLength) {
+        if (deserializer != null) {
+            return;
+        }
+        switch (format) {
+            case LENGTH_PREFIXED:
+                deserializer = new LengthPrefixedDeserializer(lineReader, maxRecordLength);
+                break;
+            case JSON_LINES:
+                // 不缓存超过maxRecordLength的行
+                lineReader.setMaxLineLength(maxRecordLength, OversizeLinePolicy.SKIP, false);
+                deserializer = new JsonLinesDeserializer(lineReader, maxRecordLength);
                 break;
+            case AVRO:
+                deserializer = new AvroContainerDeserializer(lineReader);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * switch to large sequential reads
+     * @return true if the mode changed
+     */
+    public boolean enterCatchUpMode(int bufferSize, boolean mmap) {
+        lineReader.setBuffer(bufferSize, mmap);
+        boolean changed = !catchUpMode;
+        catchUpMode = true;
+        return changed;
+    }
+
+    /**
+     * switch back to small reads used for the live file
+     * @return true if the mode changed
+     */
+    public boolean enterTailMode(int bufferSize) {
+        lineReader.setBuffer(bufferSize, false);
+        boolean changed = catchUpMode;
+        catchUpMode = false;
+        return changed;
+    }
+
+    /**
+     * position the reader at line offset, or at the record position if records are read
+     * @param lineIndex line index of this file, null if not available. entries passed are recorded
+     */
+    public void resetReader(long offset, LineIndex lineIndex) throws IOException {
+        if (deserializer != null) {
+            deserializer.seek(offset);
+            return;
+        }
+        long line = seekIndexed(lineIndex == null ? 0 : lineIndex.floorLine(offset), lineIndex);
+        while (line < offset && lineReader.skipLine(true)) {
+            line++;
+            recordLine(lineIndex, line);
+        }
+    }
+
+    /**
+     * position the reader at the first line starting at least tailBytes before the end of file
+     * @return line offset of the new position
+     */
+    public long resetReaderNearEnd(long tailBytes, LineIndex lineIndex) throws IOException {
+        long target = lineReader.size() - tailBytes;
+        if (deserializer != null) {
+            while (lineReader.getPosition() < target && deserializer.readEvent(false) != null) {
+                continue;
             }
+            return deserializer.getPosition();
+        }
+        long offset = seekIndexed(lineIndex == null ? 0 : lineIndex.floorLineAtPosition(target), lineIndex);
+        while (lineReader.getPosition() < target && lineReader.skipLine(false)) {
+            offset++;
+            recordLine(lineIndex, offset);
         }
+        return offset;
     }
 
-    public int resetBufferedReaderToEndOfFile() throws IOException {
-        this.bufferedReader = new BufferedReader(new FileReader(file));
-        int offset = 0;
-        while (true) {
-            if (bufferedReader.readLine() == null) {
-                break;
+    public long resetReaderToEndOfFile(LineIndex lineIndex) throws IOException {
+        if (deserializer != null) {
+            while (deserializer.readEvent(false) != null) {
+                continue;
             }
+            return deserializer.getPosition();
+        }
+        long offset = seekIndexed(lineIndex == null ? 0 : lineIndex.floorLine(Long.MAX_VALUE), lineIndex);
+        while (lineReader.skipLine(false)) {
             offset++;
+            recordLine(lineIndex, offset);
         }
         return offset;
     }
-}
\ No newline at end of file
+
+    /**
+     * seek to an indexed line. falls back to the start of file, and drops the index, if the
+     * indexed position is no line start any more (file truncated or rewritten)
+     * @return line offset of the new position
+     */
+    private long seekIndexed(long line, LineIndex lineIndex) throws IOException {
+        if (line > 0) {
+            long position = lineIndex.positionOf(line);
+            if (lineReader.isLineStart(position)) {
+                lineReader.seek(position);
+                return line;
+            }
+            lineIndex.clear();
+        }
+        lineReader.seek(0);
+        return 0;
+    }
+
+    private void recordLine(LineIndex lineIndex, long line) {
+        if (lineIndex != null) {
+            lineIndex.record(line, lineReader.getPosition());
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Splits the files of one directory between several sources (in one agent or in several
+ * agents on the same host), so each source reads a disjoint subset instead of all of them
+ * reading the newest file.
+ * HASH: a file belongs to the source whose shardIndex is its inode modulo shardCount. No
+ * coordination is needed, but the files of a stopped source wait until it is back.
+ * LEASE: a source reads a file while it holds the exclusive lock of "inode.lease" in the
+ * lease directory shared by the sources. The OS drops the lock when the process dies, so
+ * the files of a dead peer become free and are taken over. The lease file records the line
+ * offset its holder saved as "owner$fileName$offset$position", a source taking over a file
+ * continues from there. Files older than the one a source reads are found through
+ * {@link #orphans()}, which lists the free leases whose holder stopped before their end.
+ * Every source still keeps its own offset directory. Used by the read thread only.
+ */
+public class FileShards {
+    private static final Logger logger = LoggerFactory.getLogger(FileShards.class);
+
+    private static final String SEPARATOR = "$";
+    private static final String LEASE_SUFFIX = ".lease";
+    // 超过该时间未更新且未被持有的租约文件在启动时删除
+    private static final long LEASE_PURGE_AGE_MS = 7L * 24 * 3600 * 1000;
+
+    // 本进程持有（或正在检查）的租约文件。文件锁属于进程，关闭同一文件的任一channel会释放进程在该文件上的锁，
+    // 因此同一agent中的source操作租约文件前必须先在这里登记
+    private static final ConcurrentMap<String, FileShards> claimed = new ConcurrentHashMap<String, FileShards>();
+
+    private final ShardMode mode;
+    private final int shardCount;
+    private final int shardIndex;
+    private final File leaseDirectory;
+    private final long probeIntervalMillis;
+    private final String owner;
+    private final Map<Integer, Lease> leases = new HashMap<Integer, Lease>();
+    // 被其他source持有的文件及检查时间，检查间隔内不再尝试加锁
+    private final Map<Integer, Long> busy = new HashMap<Integer, Long>();
+    // 未被持有的文件及检查时间，检查间隔内视为仍未被持有，不再加锁检查
+    private final Map<Integer, Long> free = new HashMap<Integer, Long>();
+    // 已作为orphan返回过的租约及其修改时间，租约未再更新时不重复返回
+    private final Map<Integer, Long> reported = new HashMap<Integer, Long>();
+    private long lastOrphanScan = 0;
+    // 已读完的文件，offset保存后释放
+    private final List<Integer> finished = new ArrayList<Integer>();
+
+    /** a free lease whose last holder did not read its file to the end **/
+    public static class Orphan {
+        private final int inode;
+        private final String fileName;
+        private final long position;
+
+        Orphan(int inode, String fileName, long position) {
+            this.inode = inode;
+            this.fileName = fileName;
+            this.position = position;
+        }
+
+        public int getInode() { return inode; }
+        public String getFileName() { return fileName; }
+        /** byte position the last holder read to **/
+        public long getPosition() { return position; }
+    }
+
+    /** a lease held by this source **/
+    private static class Lease {
+        private final String path;
+        private final RandomAccessFile file;
+        private final FileLock lock;
+        private String fileName;
+        private long offset;
+        private long position;
+
+        Lease(String path, RandomAccessFile file, FileLock lock) {
+            this.path = path;
+            this.file = file;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * @param shardCount number of sources sharing the directory, used by HASH
+     * @param shardIndex index of this source in [0, shardCount), used by HASH
+     * @param leaseDirectory directory shared by the sources for the lease files, used by LEASE
+     * @param probeIntervalMillis how often a file held by another source is checked again, used by LEASE
+     * @param owner name of this source written into its leases
+     */
+    public FileShards(ShardMode mode, int shardCount, int shardIndex, String leaseDirectory,
+                      long probeIntervalMillis, String owner) throws IOException {
+        this.mode = mode;
+        this.shardCount = shardCount;
+        this.shardIndex = shardIndex;
+        this.probeIntervalMillis = probeIntervalMillis;
+        this.owner = owner;
+        if (mode == ShardMode.HASH && (shardCount <= 0 || shardIndex < 0 || shardIndex >= shardCount)) {
+            throw new IllegalArgumentException("shard index " + shardIndex + " out of shard count " + shardCount);
+        }
+        if (mode == ShardMode.LEASE) {
+            if (leaseDirectory == null || leaseDirectory.isEmpty()) {
+                throw new IllegalArgumentException("lease directory must be set in LEASE shard mode");
+            }
+            this.leaseDirectory = new File(leaseDirectory);
+            if (!this.leaseDirectory.isDirectory() && !this.leaseDirectory.mkdirs()) {
+                throw new IOException("cannot create lease directory:" + leaseDirectory);
+            }
+            purge();
+        } else {
+            this.leaseDirectory = null;
+        }
+        logger.info("shard mode:{} count:{} index:{} lease directory:{}",
+                new Object[] {mode, shardCount, shardIndex, leaseDirectory});
+    }
+
+    /**
+     * whether the file may be read by this source: in its hash shard, or leased by it or by nobody
+     */
+    public boolean accept(int inode) {
+        switch (mode) {
+            case HASH:
+                // 无法获取inode时只由第0个source读取
+                return inode == -1 ? shardIndex == 0 : (inode & Integer.MAX_VALUE) % shardCount == shardIndex;
+            case LEASE:
+                return leases.containsKey(inode) || isFree(inode);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * take the file before reading it
+     * @param fileName name of the file, written into the lease
+     * @param length byte length of the file, a lease recording a later position belongs to an older file
+     * @return -1 if another source holds the file, else the line offset recorded in the lease, 0 if none
+     */
+    public long acquire(int inode, String fileName, long length) throws IOException {
+        if (mode != ShardMode.LEASE) {
+            return accept(inode) ? 0 : -1;
+        }
+        Lease lease = leases.get(inode);
+        if (lease != null) {
+            finished.remove(Integer.valueOf(inode));
+            return lease.offset;
+        }
+        File leaseFile = leaseFile(inode);
+        String path = leaseFile.getPath();
+        if (claimed.putIfAbsent(path, this) != null) {
+            busy.put(inode, System.currentTimeMillis());
+            free.remove(inode);
+            return -1;
+        }
+        RandomAccessFile file = null;
+        FileLock lock = null;
+        try {
+            file = new RandomAccessFile(leaseFile, "rw");
+            lock = tryLock(file.getChannel());
+            if (lock == null) {
+                busy.put(inode, System.currentTimeMillis());
+                free.remove(inode);
+                return -1;
+            }
+            lease = new Lease(path, file, lock);
+            String[] record = read(file).split("\\$");
+            String previousOwner = "none";
+            if (record.length == 4) {
+                previousOwner = record[0];
+                lease.offset = Long.parseLong(record[2]);
+                lease.position = Long.parseLong(record[3]);
+                if (lease.position > length) {
+                    logger.info("lease of inode:{} recorded position {} after the end of file:{}. ignore it",
+                            new Object[] {inode, lease.position, fileName});
+                    lease.offset = 0;
+                    lease.position = 0;
+                }
+            }
+            lease.fileName = fileName;
+            write(lease);
+            leases.put(inode, lease);
+            busy.remove(inode);
+            free.remove(inode);
+            logger.info("acquired lease of file:{} inode:{} from {} at offset {}",
+                    new Object[] {fileName, inode, previousOwner, lease.offset});
+            return lease.offset;
+        } catch (NumberFormatException e) {
+            throw new IOException("lease file:" + leaseFile + " format error:" + e.getMessage());
+        } finally {
+            if (!leases.containsKey(inode)) {
+                if (lock != null) {
+                    lock.release();
+                }
+                if (file != null) {
+                    file.close();
+                }
+                claimed.remove(path, this);
+            }
+        }
+    }
+
+    /**
+     * record the offset saved for the file, called after the offset file was written
+     */
+    public void saved(int inode, String fileName, long offset, long position) {
+        Lease lease = leases.get(inode);
+        if (lease == null) {
+            return;
+        }
+        lease.fileName = fileName;
+        lease.offset = offset;
+        lease.position = position;
+        try {
+            write(lease);
+        } catch (IOException e) {
+            logger.warn("write lease of file:" + fileName + " exception:" + e.getMessage());
+        }
+    }
+
+    /**
+     * the file has been read to its end (or skipped). its lease is released once the offset of
+     * the batch is saved, so other sources continue after offset if it grows
+     */
+    public void finish(int inode, long offset, long position) {
+        Lease lease = leases.get(inode);
+        if (lease == null) {
+            return;
+        }
+        lease.offset = offset;
+        lease.position = position;
+        if (!finished.contains(inode)) {
+            finished.add(inode);
+        }
+    }
+
+    /**
+     * the offset of the last batch has been saved, release the leases of finished files
+     */
+    public void offsetSaved() {
+        for (Integer inode : finished) {
+            Lease lease = leases.remove(inode);
+            if (lease == null) {
+                continue;
+            }
+            try {
+                write(lease);
+            } catch (IOException e) {
+                logger.warn("write lease of file:" + lease.fileName + " exception:" + e.getMessage());
+            }
+            release(lease);
+            logger.info("released lease of file:{} at offset {}", lease.fileName, lease.offset);
+        }
+        finished.clear();
+    }
+
+    /**
+     * free leases, checked once per probe interval. a lease is returned again only after it was
+     * updated, the caller compares the recorded position with the length of the file
+     */
+    public List<Orphan> orphans() {
+        List<Orphan> orphans = new ArrayList<Orphan>();
+        long now = System.currentTimeMillis();
+        if (mode != ShardMode.LEASE || now - lastOrphanScan < probeIntervalMillis) {
+            return orphans;
+        }
+        lastOrphanScan = now;
+        File[] files = leaseDirectory.listFiles();
+        if (files == null) {
+            return orphans;
+        }
+        for (File leaseFile : files) {
+            String name = leaseFile.getName();
+            if (!name.endsWith(LEASE_SUFFIX)) {
+                continue;
+            }
+            int inode;
+            try {
+                inode = Integer.parseInt(name.substring(0, name.length() - LEASE_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            long modified = leaseFile.lastModified();
+            Long reportedModified = reported.get(inode);
+            if (leases.containsKey(inode) || (reportedModified != null && reportedModified == modified)) {
+                continue;
+            }
+            Orphan orphan = readFree(inode, leaseFile);
+            if (orphan != null) {
+                reported.put(inode, modified);
+                orphans.add(orphan);
+            }
+        }
+        return orphans;
+    }
+
+    public void close() {
+        for (Lease lease : leases.values()) {
+            release(lease);
+        }
+        leases.clear();
+        finished.clear();
+    }
+
+    /**
+     * whether nobody holds the lease of the file. both answers are kept for probeIntervalMillis,
+     * so a lookup does not lock the lease of every file. {@link #acquire} checks it for real
+     */
+    private boolean isFree(int inode) {
+        long now = System.currentTimeMillis();
+        Long checked = busy.get(inode);
+        if (checked != null && now - checked < probeIntervalMillis) {
+            return false;
+        }
+        checked = free.get(inode);
+        if (checked != null && now - checked < probeIntervalMillis) {
+            return true;
+        }
+        File leaseFile = leaseFile(inode);
+        String path = leaseFile.getPath();
+        if (claimed.putIfAbsent(path, this) != null) {
+            setFree(inode, false, now);
+            return false;
+        }
+        try {
+            if (!leaseFile.exists()) {
+                setFree(inode, true, now);
+                return true;
+            }
+            RandomAccessFile file = new RandomAccessFile(leaseFile, "rw");
+            try {
+                FileLock lock = tryLock(file.getChannel());
+                if (lock == null) {
+                    setFree(inode, false, now);
+                    return false;
+                }
+                lock.release();
+                setFree(inode, true, now);
+                return true;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            logger.warn("check lease file:" + leaseFile + " exception:" + e.getMessage());
+            setFree(inode, false, now);
+            return false;
+        } finally {
+            claimed.remove(path, this);
+        }
+    }
+
+    private void setFree(int inode, boolean isFree, long now) {
+        if (isFree) {
+            busy.remove(inode);
+            free.put(inode, now);
+        } else {
+            free.remove(inode);
+            busy.put(inode, now);
+        }
+    }
+
+    /**
+     * read the record of a lease nobody holds
+     * @return null if the lease is held or has no record
+     */
+    private Orphan readFree(int inode, File leaseFile) {
+        String path = leaseFile.getPath();
+        if (claimed.putIfAbsent(path, this) != null) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(leaseFile, "rw");
+            try {
+                FileLock lock = tryLock(file.getChannel());
+                if (lock == null) {
+                    setFree(inode, false, System.currentTimeMillis());
+                    return null;
+                }
+                try {
+                    String[] record = read(file).split("\\$");
+                    return record.length == 4 ? new Orphan(inode, record[1], Long.parseLong(record[3])) : null;
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            logger.warn("check lease file:" + leaseFile + " exception:" + e.getMessage());
+            return null;
+        } catch (NumberFormatException e) {
+            logger.warn("lease file:" + leaseFile + " format error:" + e.getMessage());
+            return null;
+        } finally {
+            claimed.remove(path, this);
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private void release(Lease lease) {
+        try {
+            lease.lock.release();
+            lease.file.close();
+        } catch (IOException e) {
+            logger.warn("release lease file:" + lease.path + " exception:" + e.getMessage());
+        }
+        claimed.remove(lease.path, this);
+    }
+
+    private File leaseFile(int inode) {
+        return new File(leaseDirectory, inode + LEASE_SUFFIX);
+    }
+
+    private static String read(RandomAccessFile file) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(file.length(), 64 * 1024)];
+        file.seek(0);
+        file.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8).trim();
+    }
+
+    /** rewrite the locked lease file in place, a rename would drop the lock **/
+    private void write(Lease lease) throws IOException {
+        byte[] bytes = (owner + SEPARATOR + lease.fileName + SEPARATOR + lease.offset + SEPARATOR
+                + lease.position + "\n").getBytes(Charsets.UTF_8);
+        FileChannel channel = lease.file.getChannel();
+        channel.write(ByteBuffer.wrap(bytes), 0);
+        channel.truncate(bytes.length);
+    }
+
+    /**
+     * delete the lease files of long gone files
+     */
+    private void purge() {
+        File[] files = leaseDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(LEASE_SUFFIX) && now - file.lastModified() > LEASE_PURGE_AGE_MS
+                    && claimed.putIfAbsent(file.getPath(), this) == null) {
+                try {
+                    if (deleteIfUnlocked(file)) {
+                        purged++;
+                    }
+                } finally {
+                    claimed.remove(file.getPath(), this);
+                }
+            }
+        }
+        if (purged > 0) {
+            logger.info("purged {} old lease files in {}", purged, leaseDirectory);
+        }
+    }
+
+    private static boolean deleteIfUnlocked(File leaseFile) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(leaseFile, "rw");
+            try {
+                FileLock lock = tryLock(file.getChannel());
+                if (lock == null) {
+                    return false;
+                }
+                // 持有锁时删除，避免删除其他source刚加锁的文件
+                boolean deleted = leaseFile.delete();
+                lock.release();
+                return deleted;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Json values separated by newlines. A value ends at the first line end where all its
+ * objects and arrays are closed, so pretty printed values spanning several lines are read
+ * as one record, and a value still being written is left unread. Blank lines are skipped.
+ * A value longer than maxRecordLength is dropped up to its end. The line reader skips lines
+ * longer than maxRecordLength, so no line is buffered beyond that length; the brackets of a
+ * skipped line are not counted.
+ * At the end of a file which is no longer written (acceptPartial) the last value is read
+ * without line end, and a value which is not closed is returned as it is.
+ * The body of the event is the value with surrounding whitespace removed. Positions are
+ * byte positions of record starts.
+ */
+public class JsonLinesDeserializer implements RecordDeserializer {
+    private static final Logger logger = LoggerFactory.getLogger(JsonLinesDeserializer.class);
+    private static final byte[] NEWLINE = {'\n'};
+    // 超长记录最多丢弃maxRecordLength的该倍数字节，之后括号仍未配对则从下一行重新开始
+    private static final int MAX_DISCARD_FACTOR = 4;
+
+    private final LineReader input;
+    private final int maxRecordLength;
+    private final LineBuffer line = new LineBuffer(1024);
+    private final LineBuffer record = new LineBuffer(1024);
+    // 已警告过的超长记录位置，记录未写完时每次读取都会重新扫描
+    private long warnedPosition = -1;
+
+    /**
+     * @param maxRecordLength larger values are dropped
+     */
+    public JsonLinesDeserializer(LineReader input, int maxRecordLength) {
+        this.input = input;
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    @Override
+    public Event readEvent(boolean acceptPartial) throws IOException {
+        while (true) {
+            long start = input.getPosition();
+            record.clear();
+            int depth = 0;
+            long length = 0;
+            boolean oversized = false;
+            while (true) {
+                LineReader.Result result = input.readLine(line, acceptPartial);
+                if (result == LineReader.Result.EOF) {
+                    if (acceptPartial && length > 0) {
+                        // 已写完的文件末尾的值未闭合，不丢弃已读取的部分
+                        logger.warn("json record at position " + start + " of file:" + input.getFile()
+                                + " is not closed at the end of the file");
+                        break;
+                    }
+                    // 记录未写完，回退到记录开头
+                    input.seek(start);
+                    return null;
+                }
+                if (result == LineReader.Result.SKIPPED) {
+                    // 超过maxRecordLength的行已由LineReader丢弃，其中的括号无法统计
+                    length += (long) maxRecordLength + 1;
+                } else {
+                    depth = scan(line.array(), line.length(), depth);
+                    length += line.length() + 1;
+                }
+                if (!oversized && length > maxRecordLength) {
+                    oversized = true;
+                    record.clear();
+                    if (start != warnedPosition) {
+                        warnedPosition = start;
+                        logger.warn("json record at position " + start + " of file:" + input.getFile()
+                                + " is longer than " + maxRecordLength + " bytes. dropped it");
+                    }
+                }
+                if (depth <= 0) {
+                    break;
+                }
+                if (oversized && length > (long) maxRecordLength * MAX_DISCARD_FACTOR) {
+                    // 括号一直不配对，不再丢弃，从下一行重新开始
+                    logger.warn("json record at position " + start + " of file:" + input.getFile()
+                            + " is not closed within " + length + " bytes. continue after it");
+                    break;
+                }
+                if (!oversized) {
+                    if (record.length() > 0) {
+                        record.append(NEWLINE, 0, 1);
+                    }
+                    record.append(line.array(), 0, line.length());
+                }
+            }
+            if (!oversized) {
+                if (record.length() > 0) {
+                    record.append(NEWLINE, 0, 1);
+                }
+                record.append(line.array(), 0, line.length());
+            }
+            int from = 0;
+            int to = record.length();
+            byte[] bytes = record.array();
+            while (from < to && isWhitespace(bytes[from])) {
+                from++;
+            }
+            while (to > from && isWhitespace(bytes[to - 1])) {
+                to--;
+            }
+            if (from < to) {
+                return new LineEvent(Arrays.copyOfRange(bytes, from, to));
+            }
+        }
+    }
+
+    @Override
+    public boolean isCorrupt() {
+        return false;
+    }
+
+    @Override
+    public long getPosition() {
+        return input.getPosition();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        input.seek(position);
+    }
+
+    /**
+     * @return nesting depth of objects and arrays after the line. strings do not span lines in json
+     */
+    private static int scan(byte[] bytes, int length, int depth) {
+        boolean inString = false;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+        }
+        return depth;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
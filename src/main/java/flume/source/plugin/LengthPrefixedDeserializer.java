@@ -0,0 +1,90 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Records prefixed by their length as 4 byte big endian int, the layout
+ * {@link PackFormat#LENGTH_PREFIXED} writes. The body of the event is the record without
+ * the prefix. Positions are byte positions of record starts.
+ * A length prefix out of range means the file is corrupt, the rest of the file is not read
+ * until the reader seeks again, so the source moves on to the next file.
+ */
+public class LengthPrefixedDeserializer implements RecordDeserializer {
+    private static final Logger logger = LoggerFactory.getLogger(LengthPrefixedDeserializer.class);
+    private static final int PREFIX_LENGTH = 4;
+
+    private final LineReader input;
+    private final int maxRecordLength;
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+    // 长度前缀越界的位置，-1 表示未损坏
+    private long corruptPosition = -1;
+
+    /**
+     * @param maxRecordLength a larger length prefix is treated as corrupt data
+     */
+    public LengthPrefixedDeserializer(LineReader input, int maxRecordLength) {
+        this.input = input;
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    @Override
+    public Event readEvent(boolean acceptPartial) throws IOException {
+        if (corruptPosition >= 0) {
+            return null;
+        }
+        long start = input.getPosition();
+        if (!readFully(prefix)) {
+            input.seek(start);
+            return null;
+        }
+        int length = ((prefix[0] & 0xFF) << 24) | ((prefix[1] & 0xFF) << 16)
+                | ((prefix[2] & 0xFF) << 8) | (prefix[3] & 0xFF);
+        if (length < 0 || length > maxRecordLength) {
+            // 无法找到下一条记录的开头，停在损坏处不再读取，不重复抛出异常
+            input.seek(start);
+            corruptPosition = start;
+            logger.error("record length " + length + " at position " + start + " of file:"
+                    + input.getFile() + " is out of range [0, " + maxRecordLength + "]. skip the rest of the file");
+            return null;
+        }
+        byte[] body = new byte[length];
+        if (!readFully(body)) {
+            // 记录未写完，回退到记录开头
+            input.seek(start);
+            return null;
+        }
+        return new LineEvent(body);
+    }
+
+    @Override
+    public boolean isCorrupt() {
+        return corruptPosition >= 0;
+    }
+
+    @Override
+    public long getPosition() {
+        return input.getPosition();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        corruptPosition = -1;
+        input.seek(position);
+    }
+
+    private boolean readFully(byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = input.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package flume.source.plugin;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable growable byte array holding the raw bytes of one line (without line terminator).
+ */
+public class LineBuffer {
+    private byte[] bytes;
+    private int length = 0;
+
+    public LineBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    public byte[] array() { return bytes; }
+    public int length() { return length; }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public void append(byte[] src, int offset, int len) {
+        ensureCapacity(length + len);
+        System.arraycopy(src, offset, bytes, length, len);
+        length += len;
+    }
+
+    public void append(ByteBuffer src, int len) {
+        ensureCapacity(length + len);
+        src.get(bytes, length, len);
+        length += len;
+    }
+
+    /**
+     * drop bytes at the end of the line
+     */
+    public void truncate(int newLength) {
+        if (newLength < length) {
+            length = newLength;
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length << 1));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package flume.source.plugin;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes raw line bytes into a reused CharBuffer, so content patterns can be matched
+ * without creating a String per line.
+ * Malformed input is replaced, like the Reader based implementation did. {@link #isClean()}
+ * tells whether the last line decoded without any replacement, in which case the raw
+ * bytes can be used as event body when input and output charset are the same.
+ * Not thread safe.
+ */
+public class LineDecoder {
+    private final CharsetDecoder strictDecoder;
+    private final CharsetDecoder replacingDecoder;
+    private final float maxCharsPerByte;
+    private CharBuffer chars = CharBuffer.allocate(1024);
+    private boolean clean = true;
+
+    public LineDecoder(Charset charset) {
+        this.strictDecoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.replacingDecoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxCharsPerByte = strictDecoder.maxCharsPerByte();
+    }
+
+    /**
+     * decode the line. the returned buffer is only valid until the next call
+     */
+    public CharBuffer decode(LineBuffer line) {
+        return decode(line.array(), 0, line.length());
+    }
+
+    public CharBuffer decode(byte[] bytes, int offset, int length) {
+        int required = (int) Math.ceil(length * maxCharsPerByte) + 1;
+        if (chars.capacity() < required) {
+            chars = CharBuffer.allocate(Math.max(required, chars.capacity() << 1));
+        }
+        clean = decode(strictDecoder, bytes, offset, length);
+        if (!clean) {
+            decode(replacingDecoder, bytes, offset, length);
+        }
+        chars.flip();
+        return chars;
+    }
+
+    public boolean isClean() { return clean; }
+
+    private boolean decode(CharsetDecoder decoder, byte[] bytes, int offset, int length) {
+        chars.clear();
+        decoder.reset();
+        ByteBuffer in = ByteBuffer.wrap(bytes, offset, length);
+        CoderResult result = decoder.decode(in, chars, true);
+        if (!result.isUnderflow()) {
+            return false;
+        }
+        return decoder.flush(chars).isUnderflow();
+    }
+}
@@ -0,0 +1,55 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight event used by the reader. Unlike SimpleEvent the header map is only
+ * allocated when somebody (interceptor, serializer) asks for it, so plain lines
+ * cost one object plus the body array.
+ */
+public class LineEvent implements Event {
+    private Map<String, String> headers;
+    private byte[] body;
+
+    public LineEvent(byte[] body) {
+        this.body = body;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new HashMap<String, String>(4);
+        }
+        return headers;
+    }
+
+    /**
+     * whether any header was set, without allocating the header map
+     */
+    public boolean hasHeaders() {
+        return headers != null && !headers.isEmpty();
+    }
+
+    @Override
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public byte[] getBody() {
+        return body;
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        this.body = body == null ? new byte[0] : body;
+    }
+
+    @Override
+    public String toString() {
+        return "[Event headers = " + headers + ", body.length = " + body.length + " ]";
+    }
+}
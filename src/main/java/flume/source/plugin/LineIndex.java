@@ -0,0 +1,162 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse line to byte index of one file (identified by inode), so a line offset from the
+ * checkpoint is resolved with one seek plus a scan of less than interval lines instead of
+ * reading the file from the start.
+ * The byte position where line k * interval starts is recorded while the file is read or
+ * skipped. Entries are contiguous from the start of the file, lines which are not reached
+ * that way (a gap) are not indexed.
+ * The index is saved next to the offset file as text: "inode$interval" followed by one
+ * position per line.
+ * Not thread safe, used by the read thread only.
+ */
+public class LineIndex {
+    private static final String SEPARATOR = "$";
+
+    private final int interval;
+    private int inode = -1;
+    /** positions[k] is the byte position of line (k + 1) * interval **/
+    private long[] positions = new long[64];
+    private int size = 0;
+    private boolean dirty = false;
+
+    public LineIndex(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("line index interval must be positive:" + interval);
+        }
+        this.interval = interval;
+    }
+
+    public int getInterval() { return interval; }
+    public int getInode() { return inode; }
+    public int size() { return size; }
+    public boolean isDirty() { return dirty; }
+
+    /**
+     * switch to the file with inode, the entries are dropped if it is another file
+     */
+    public void use(int fileInode) {
+        if (fileInode != inode) {
+            inode = fileInode;
+            size = 0;
+            dirty = true;
+        }
+    }
+
+    /**
+     * drop all entries, used when they do not match the file any more
+     */
+    public void clear() {
+        if (size > 0) {
+            size = 0;
+            dirty = true;
+        }
+    }
+
+    /**
+     * @param line line offset of a line start
+     * @param position byte position of that line start
+     */
+    public void record(long line, long position) {
+        if (line != (long) (size + 1) * interval) {
+            return;
+        }
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size << 1);
+        }
+        positions[size++] = position;
+        dirty = true;
+    }
+
+    /**
+     * @return the largest indexed line offset not after line, 0 if there is none
+     */
+    public long floorLine(long line) {
+        return Math.min(size, line / interval) * (long) interval;
+    }
+
+    /**
+     * @return the largest indexed line offset which starts not after position, 0 if there is none
+     */
+    public long floorLineAtPosition(long position) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (positions[middle - 1] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low * (long) interval;
+    }
+
+    /**
+     * @param line an indexed line offset, as returned by the floor methods
+     * @return byte position of the line
+     */
+    public long positionOf(long line) {
+        int k = (int) (line / interval);
+        return k == 0 ? 0 : positions[k - 1];
+    }
+
+    public void save(File file) throws IOException {
+        StringBuilder text = new StringBuilder(size * 12 + 32);
+        text.append(inode).append(SEPARATOR).append(interval).append('\n');
+        for (int i = 0; i < size; i++) {
+            text.append(positions[i]).append('\n');
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(text, tmp, Charsets.UTF_8);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename " + tmp + " to " + file + " failed");
+        }
+        dirty = false;
+    }
+
+    /**
+     * load the entries saved by {@link #save(File)}. a file with another interval is ignored
+     * @return false if nothing was loaded
+     */
+    public boolean load(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        if (lines.isEmpty()) {
+            return false;
+        }
+        String[] header = lines.get(0).split("\\$");
+        try {
+            if (header.length != 2 || Integer.parseInt(header[1]) != interval) {
+                return false;
+            }
+            int fileInode = Integer.parseInt(header[0]);
+            long[] loaded = new long[Math.max(64, lines.size())];
+            int count = 0;
+            for (int i = 1; i < lines.size(); i++) {
+                if (lines.get(i).isEmpty()) {
+                    continue;
+                }
+                loaded[count++] = Long.parseLong(lines.get(i));
+            }
+            inode = fileInode;
+            positions = loaded;
+            size = count;
+            dirty = false;
+            return true;
+        } catch (NumberFormatException e) {
+            throw new IOException("line index file:" + file + " format error:" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+/**
+ * Packs consecutive lines into one event body, so the per event cost of the channel
+ * (transaction bookkeeping, file channel serialization) is paid once for many small lines.
+ * A pack is full when it holds maxLines lines or at least maxBytes body bytes. The reader
+ * flushes the open pack at the end of every read, so a pack never spans two checkpoints and
+ * the saved offset always falls on a pack boundary.
+ * The headers record the line count and the offsets (line numbers, as in the checkpoint) of
+ * the first and the last line of the pack.
+ * The pieces of a line split by the SPLIT policy are not packed with other lines: each piece
+ * is a pack of its own, and only the pack of the first piece counts the line, so the line
+ * counts of the packs add up to the lines read.
+ * Not thread safe, one instance per reader.
+ */
+public class LinePacker {
+    public static final String HEADER_LINE_COUNT = "lineCount";
+    public static final String HEADER_FIRST_OFFSET = "firstOffset";
+    public static final String HEADER_LAST_OFFSET = "lastOffset";
+    private static final byte[] SEPARATOR = {'\n'};
+
+    private final PackFormat format;
+    private final int maxLines;
+    private final int maxBytes;
+    private final LineBuffer body;
+    private final byte[] lengthPrefix = new byte[4];
+    // 包内的条目数，超长行的后续分段不计入lineCount
+    private int entries = 0;
+    private int lineCount = 0;
+    // 超长行的分段单独成包
+    private boolean piece = false;
+    private long firstOffset = -1;
+    private long lastOffset = -1;
+    private long timestamp = -1;
+    private String route = null;
+
+    /**
+     * @param format NEWLINE or LENGTH_PREFIXED
+     * @param maxLines max lines of a pack
+     * @param maxBytes body bytes after which a pack is full, <= 0 means only maxLines counts
+     */
+    public LinePacker(PackFormat format, int maxLines, int maxBytes) {
+        if (format == null || format == PackFormat.NONE) {
+            throw new IllegalArgumentException("pack format must be NEWLINE or LENGTH_PREFIXED");
+        }
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException("pack lines must be positive:" + maxLines);
+        }
+        this.format = format;
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        this.body = new LineBuffer(maxBytes > 0 ? Math.min(maxBytes, 1024 * 1024) + 1024 : 64 * 1024);
+    }
+
+    public int getMaxLines() { return maxLines; }
+
+    public boolean isEmpty() { return entries == 0; }
+
+    /**
+     * whether a line with route may join the open pack
+     */
+    public boolean hasRoute(String lineRoute) {
+        return route == null ? lineRoute == null : route.equals(lineRoute);
+    }
+
+    public boolean isFull() {
+        return piece || entries >= maxLines || (maxBytes > 0 && body.length() >= maxBytes);
+    }
+
+    /**
+     * append a line to the open pack
+     * @param bytes line bytes in the output charset
+     * @param lineOffset line number of the line in its file
+     * @param lineTimestamp extracted timestamp of the line, -1 if unknown. the pack keeps the first one
+     * @param lineRoute routing header value of the line, the pack keeps the first one
+     */
+    public void add(byte[] bytes, int offset, int length, long lineOffset, long lineTimestamp,
+                    String lineRoute) {
+        if (format == PackFormat.LENGTH_PREFIXED) {
+            lengthPrefix[0] = (byte) (length >>> 24);
+            lengthPrefix[1] = (byte) (length >>> 16);
+            lengthPrefix[2] = (byte) (length >>> 8);
+            lengthPrefix[3] = (byte) length;
+            body.append(lengthPrefix, 0, 4);
+        } else if (entries > 0) {
+            body.append(SEPARATOR, 0, 1);
+        }
+        body.append(bytes, offset, length);
+        if (entries == 0) {
+            firstOffset = lineOffset;
+            route = lineRoute;
+        }
+        lastOffset = lineOffset;
+        if (timestamp < 0) {
+            timestamp = lineTimestamp;
+        }
+        entries++;
+        lineCount++;
+    }
+
+    /**
+     * put a piece of a split line into a pack of its own, which is full at once
+     * @param firstPiece whether it is the first piece of the line, only that one counts the line
+     * @throws IllegalStateException if the open pack is not empty
+     */
+    public void addPiece(byte[] bytes, int offset, int length, long lineOffset, long lineTimestamp,
+                         String lineRoute, boolean firstPiece) {
+        if (entries > 0) {
+            throw new IllegalStateException("a piece of a split line must not join a pack of "
+                    + entries + " entries");
+        }
+        add(bytes, offset, length, lineOffset, lineTimestamp, lineRoute);
+        if (!firstPiece) {
+            lineCount--;
+        }
+        piece = true;
+    }
+
+    /**
+     * close the open pack
+     * @param timestampHeader header to store the timestamp of the first line in
+     * @param routeHeader header to store the route of the pack in
+     * @return the packed event, null if the pack is empty
+     */
+    public Event flush(String timestampHeader, String routeHeader) {
+        if (entries == 0) {
+            return null;
+        }
+        Event event = new LineEvent(body.toByteArray());
+        event.getHeaders().put(HEADER_LINE_COUNT, String.valueOf(lineCount));
+        event.getHeaders().put(HEADER_FIRST_OFFSET, String.valueOf(firstOffset));
+        event.getHeaders().put(HEADER_LAST_OFFSET, String.valueOf(lastOffset));
+        if (timestamp >= 0) {
+            event.getHeaders().put(timestampHeader, String.valueOf(timestamp));
+        }
+        if (route != null) {
+            event.getHeaders().put(routeHeader, route);
+        }
+        body.clear();
+        entries = 0;
+        lineCount = 0;
+        piece = false;
+        firstOffset = -1;
+        lastOffset = -1;
+        timestamp = -1;
+        route = null;
+        return event;
+    }
+}
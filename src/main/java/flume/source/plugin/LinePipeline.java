@@ -0,0 +1,291 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the stateless part of reading lines (decode, content filters, route, timestamp,
+ * duplicate hash and event body) on a pool of worker threads, so the content patterns of
+ * one busy file are matched on more than one core.
+ * The read thread cuts the lines it reads into chunks of consecutive lines and submits them
+ * in file order. It takes the processed chunks back in the same order and runs the stateful
+ * stages (duplicate suppression, packing) on them, so events keep the file order and the
+ * offset only counts lines of chunks which completed without a gap.
+ * Every worker thread keeps its own decoder, matchers and encoder.
+ */
+public class LinePipeline {
+    /** state of a processed line **/
+    public static final byte KEPT = 0;
+    public static final byte FILTERED = 1;
+    public static final byte SKIPPED = 2;
+
+    // 每块的最少行数，批次较小时也不切得过碎
+    private static final int MIN_CHUNK_LINES = 32;
+
+    private final ExecutorService workers;
+    private final int threads;
+    private final int chunkLines;
+    private final Charset inputCharset;
+    private final Charset outputCharset;
+    private final boolean rawBody;
+    private final RouteRules routeRules;
+    private final String routeHeader;
+    private final String timestampHeader;
+    // 不打包时由worker创建event
+    private final boolean buildEvents;
+    // 抑制重复行时由worker计算行的hash
+    private final boolean hashLines;
+    // 新建的块使用的内容规则，运行中更新时已提交的块仍使用旧规则
+    private volatile ContentRules contentRules;
+
+    private final ThreadLocal<Stage> stages = new ThreadLocal<Stage>() {
+        @Override
+        protected Stage initialValue() {
+            return new Stage();
+        }
+    };
+
+    /** content patterns and timestamp extractor of a chunk **/
+    private static class ContentRules {
+        private final Pattern filterPattern;
+        private final Pattern ignorePattern;
+        private final TimestampExtractor timestampExtractor;
+
+        ContentRules(Pattern filterPattern, Pattern ignorePattern, TimestampExtractor timestampExtractor) {
+            this.filterPattern = filterPattern;
+            this.ignorePattern = ignorePattern;
+            this.timestampExtractor = timestampExtractor;
+        }
+    }
+
+    /** state of one worker thread **/
+    private class Stage {
+        private final LineDecoder decoder = new LineDecoder(inputCharset);
+        private final EventBatchBuilder builder = new EventBatchBuilder(outputCharset);
+        private final RouteRules routes = routeRules == null ? null : routeRules.copy();
+        private ContentRules rules;
+        private Matcher filterMatcher;
+        private Matcher ignoreMatcher;
+
+        void use(ContentRules chunkRules) {
+            if (chunkRules != rules) {
+                rules = chunkRules;
+                filterMatcher = chunkRules.filterPattern.matcher("");
+                ignoreMatcher = chunkRules.ignorePattern.matcher("");
+            }
+        }
+    }
+
+    /**
+     * consecutive lines of one file, filled by the read thread and processed by a worker.
+     * the results are read by the read thread after the future of the chunk completed
+     */
+    public static class Chunk {
+        private final ContentRules rules;
+        private final long startPosition;
+        private byte[] data;
+        private int dataLength = 0;
+        private final int[] ends;
+        private final long[] positions;
+        private final boolean[] insideLine;
+        private final LineReader.Result[] results;
+        private int count = 0;
+        private final byte[] states;
+        private final byte[][] bodies;
+        private final Event[] events;
+        private final String[] routes;
+        private final long[] timestamps;
+        private final long[] hashes;
+
+        private Chunk(ContentRules rules, long startPosition, int lines) {
+            this.rules = rules;
+            this.startPosition = startPosition;
+            this.data = new byte[lines * 128];
+            this.ends = new int[lines];
+            this.positions = new long[lines];
+            this.insideLine = new boolean[lines];
+            this.results = new LineReader.Result[lines];
+            this.states = new byte[lines];
+            this.bodies = new byte[lines][];
+            this.events = new Event[lines];
+            this.routes = new String[lines];
+            this.timestamps = new long[lines];
+            this.hashes = new long[lines];
+        }
+
+        /**
+         * append a line returned by the line reader
+         * @param insideLine {@link LineReader#isInsideLine()} before the line was read
+         * @param position read position after the line
+         */
+        public void add(boolean insideLine, LineReader.Result result, LineBuffer line, long position) {
+            int length = line.length();
+            if (dataLength + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(dataLength + length, data.length << 1));
+            }
+            System.arraycopy(line.array(), 0, data, dataLength, length);
+            dataLength += length;
+            ends[count] = dataLength;
+            positions[count] = position;
+            this.insideLine[count] = insideLine;
+            results[count] = result;
+            count++;
+        }
+
+        public boolean isFull() { return count == ends.length; }
+        public int size() { return count; }
+
+        /**
+         * @return read position where line i starts
+         */
+        public long startOf(int i) {
+            return i == 0 ? startPosition : positions[i - 1];
+        }
+
+        /**
+         * @return whether the read position where line i starts is inside a truncated line
+         */
+        public boolean isInsideLine(int i) {
+            return insideLine[i];
+        }
+
+        public LineReader.Result getResult(int i) { return results[i]; }
+        public byte getState(int i) { return states[i]; }
+        public byte[] getBody(int i) { return bodies[i]; }
+        /** event of a kept line, null in pack mode **/
+        public Event getEvent(int i) { return events[i]; }
+        public String getRoute(int i) { return routes[i]; }
+        /** timestamp of a kept line, -1 if none **/
+        public long getTimestamp(int i) { return timestamps[i]; }
+        public long getHash(int i) { return hashes[i]; }
+    }
+
+    /**
+     * @param threads num of worker threads
+     * @param chunkLines max lines per chunk
+     * @param routeRules route rules of the reader, copied for every worker, may be null
+     * @param buildEvents whether workers create the events, false in pack mode
+     * @param hashLines whether workers compute the duplicate hash of the lines
+     */
+    public LinePipeline(int threads, int chunkLines, Charset inputCharset, Charset outputCharset,
+                        RouteRules routeRules, String routeHeader, String timestampHeader,
+                        boolean buildEvents, boolean hashLines) {
+        if (threads <= 0 || chunkLines <= 0) {
+            throw new IllegalArgumentException("decode threads and chunk lines must be positive:"
+                    + threads + " " + chunkLines);
+        }
+        this.threads = threads;
+        this.chunkLines = chunkLines;
+        this.inputCharset = inputCharset;
+        this.outputCharset = outputCharset;
+        this.rawBody = inputCharset.equals(outputCharset);
+        this.routeRules = routeRules;
+        this.routeHeader = routeHeader;
+        this.timestampHeader = timestampHeader;
+        this.buildEvents = buildEvents;
+        this.hashLines = hashLines;
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final ThreadFactory delegate = Executors.defaultThreadFactory();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = delegate.newThread(runnable);
+                thread.setName("reliable-tail-decode-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * set the content rules of the chunks created from now on
+     * @param timestampExtractor may be null
+     */
+    public void setContentRules(Pattern filterPattern, Pattern ignorePattern, TimestampExtractor timestampExtractor) {
+        contentRules = new ContentRules(filterPattern, ignorePattern, timestampExtractor);
+    }
+
+    public int getThreads() { return threads; }
+
+    /**
+     * @return lines per chunk for a batch of maxLines lines, small batches are spread over the workers
+     */
+    public int chunkLines(int maxLines) {
+        return Math.min(chunkLines, Math.max(MIN_CHUNK_LINES, (maxLines + threads - 1) / threads));
+    }
+
+    /**
+     * @param startPosition read position of the first line of the chunk
+     */
+    public Chunk newChunk(long startPosition, int lines) {
+        return new Chunk(contentRules, startPosition, lines);
+    }
+
+    public Future<Chunk> submit(final Chunk chunk) {
+        return workers.submit(new Callable<Chunk>() {
+            @Override
+            public Chunk call() {
+                return process(chunk);
+            }
+        });
+    }
+
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private Chunk process(Chunk chunk) {
+        Stage stage = stages.get();
+        stage.use(chunk.rules);
+        TimestampExtractor timestampExtractor = chunk.rules.timestampExtractor;
+        int start = 0;
+        for (int i = 0; i < chunk.count; i++) {
+            int end = chunk.ends[i];
+            if (chunk.results[i] == LineReader.Result.SKIPPED) {
+                chunk.states[i] = SKIPPED;
+                start = end;
+                continue;
+            }
+            CharBuffer line = stage.decoder.decode(chunk.data, start, end - start);
+            if (!stage.filterMatcher.reset(line).matches() || stage.ignoreMatcher.reset(line).matches()) {
+                chunk.states[i] = FILTERED;
+                start = end;
+                continue;
+            }
+            String route = stage.routes == null ? null : stage.routes.route(line);
+            long timestamp = timestampExtractor == null ? -1 : timestampExtractor.extract(line, stage.filterMatcher);
+            if (hashLines) {
+                chunk.hashes[i] = DuplicateSuppressor.hash(line);
+            }
+            byte[] body = rawBody && stage.decoder.isClean()
+                    ? Arrays.copyOfRange(chunk.data, start, end) : stage.builder.encode(line);
+            if (buildEvents) {
+                Event event = new LineEvent(body);
+                if (timestamp >= 0) {
+                    event.getHeaders().put(timestampHeader, String.valueOf(timestamp));
+                }
+                if (route != null) {
+                    event.getHeaders().put(routeHeader, route);
+                }
+                chunk.events[i] = event;
+            }
+            chunk.states[i] = KEPT;
+            chunk.bodies[i] = body;
+            chunk.routes[i] = route;
+            chunk.timestamps[i] = timestamp;
+            start = end;
+        }
+        // 原始数据已不再需要
+        chunk.data = null;
+        return chunk;
+    }
+}
@@ -0,0 +1,425 @@
+package flume.source.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Byte oriented line reader over a file channel which knows the exact file position
+ * of every line it returns.
+ * The read buffer can be resized (or switched to a memory mapped window) at any time
+ * without losing the read position, which is used to switch between the small buffer
+ * tail mode and the large buffer catch-up mode.
+ * The file is opened lazily on the first read.
+ * Lines longer than maxLineLength are never held in memory completely, they are
+ * truncated, split or skipped while scanning according to the {@link OversizeLinePolicy}.
+ * Lines end at the byte 0x0A and a CR before it is removed. A lone CR does not end a line,
+ * it stays in the line. The file charset must encode LF as that single byte, see
+ * {@link #isAsciiCompatible(Charset)}.
+ */
+public class LineReader implements Closeable {
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    /** result of {@link #readLine(LineBuffer, boolean)} **/
+    public enum Result {
+        /** no (complete) line available **/
+        EOF,
+        /** a complete line **/
+        LINE,
+        /** the first maxLineLength bytes of an oversized line, the rest is dropped **/
+        TRUNCATED,
+        /** a chunk of an oversized line, more chunks follow **/
+        CHUNK,
+        /** the last chunk of an oversized line, may be empty **/
+        LAST_CHUNK,
+        /** an oversized line was dropped **/
+        SKIPPED
+    }
+
+    // 超长行处理状态：正常读取、丢弃行剩余部分、分段读取中
+    private static final int STATE_NONE = 0;
+    private static final int STATE_DISCARD = 1;
+    private static final int STATE_SPLIT = 2;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile = null;
+    private FileChannel channel = null;
+
+    private int bufferSize;
+    private boolean mmap;
+    /** unread bytes are buffer[position(), limit()) **/
+    private ByteBuffer buffer;
+    /** file position of the next unread byte **/
+    private long position = 0;
+
+    /** max bytes of a line, <= 0 means unlimited **/
+    private int maxLineLength = 0;
+    private OversizeLinePolicy oversizeLinePolicy = OversizeLinePolicy.TRUNCATE;
+    /** cut chunks at utf-8 character boundaries **/
+    private boolean utf8 = false;
+    private int state = STATE_NONE;
+    /** whether the discarded line has to be reported as SKIPPED **/
+    private boolean reportSkipped = false;
+
+    public LineReader(File file, int bufferSize) {
+        this.file = file;
+        this.bufferSize = bufferSize;
+        this.mmap = false;
+        this.buffer = emptyBuffer();
+    }
+
+    /**
+     * whether lines of charset can be split on the byte 0x0A, which is not the case for UTF-16 or UTF-32
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        byte[] bytes = "\r\n".getBytes(charset);
+        return bytes.length == 2 && bytes[0] == CR && bytes[1] == LF;
+    }
+
+    public File getFile() { return file; }
+    public long getPosition() { return position; }
+    public int getBufferSize() { return bufferSize; }
+    public boolean isMmap() { return mmap; }
+
+    /**
+     * change the buffer size or the buffer type. the read position is kept,
+     * already buffered bytes are dropped and read again
+     */
+    public void setBuffer(int bufferSize, boolean mmap) {
+        if (this.bufferSize == bufferSize && this.mmap == mmap) {
+            return;
+        }
+        this.bufferSize = bufferSize;
+        this.mmap = mmap;
+        this.buffer = emptyBuffer();
+    }
+
+    public void setMaxLineLength(int maxLineLength, OversizeLinePolicy oversizeLinePolicy, boolean utf8) {
+        this.maxLineLength = maxLineLength;
+        this.oversizeLinePolicy = oversizeLinePolicy;
+        this.utf8 = utf8;
+    }
+
+    /**
+     * move to newPosition, which must be the start of a line
+     */
+    public void seek(long newPosition) {
+        state = STATE_NONE;
+        reposition(newPosition);
+    }
+
+    /**
+     * whether the read position is inside an oversized line whose rest is dropped by the next read
+     */
+    public boolean isInsideLine() {
+        return state == STATE_DISCARD;
+    }
+
+    /**
+     * move back to a read position, insideLine as returned by {@link #isInsideLine()} there
+     */
+    public void seek(long newPosition, boolean insideLine) {
+        seek(newPosition);
+        if (insideLine) {
+            state = STATE_DISCARD;
+            reportSkipped = oversizeLinePolicy == OversizeLinePolicy.SKIP;
+        }
+    }
+
+    private void reposition(long newPosition) {
+        if (newPosition == position) {
+            return;
+        }
+        position = newPosition;
+        buffer = emptyBuffer();
+    }
+
+    /**
+     * whether a line starts at position, i.e. the byte before it is a line feed
+     */
+    public boolean isLineStart(long position) throws IOException {
+        if (position == 0) {
+            return true;
+        }
+        if (channel == null || !channel.isOpen()) {
+            open();
+        }
+        if (position < 0 || position > channel.size()) {
+            return false;
+        }
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        return channel.read(previous, position - 1) == 1 && previous.get(0) == LF;
+    }
+
+    public long size() throws IOException {
+        if (channel != null) {
+            return channel.size();
+        }
+        return file.length();
+    }
+
+    /**
+     * read the next line into line
+     * @param line buffer to store the line bytes, line terminator is not included
+     * @param acceptPartial whether return the last line without line terminator at end of file.
+     *                      if false the incomplete line is kept unread until the writer finishes it
+     * @return what was read
+     * @throws IOException
+     */
+    public Result readLine(LineBuffer line, boolean acceptPartial) throws IOException {
+        line.clear();
+        if (state == STATE_DISCARD) {
+            Result result = discardLine(acceptPartial);
+            if (result != null) {
+                return result;
+            }
+        }
+        long lineStart = position;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                if (line.length() > 0 && acceptPartial) {
+                    stripCarriageReturn(line);
+                    return endLine();
+                }
+                if (line.length() > 0) {
+                    // 行未写完，回退到行首，等待写入完成后再读取
+                    reposition(lineStart);
+                }
+                return Result.EOF;
+            }
+            int start = buffer.position();
+            int end = buffer.limit();
+            if (maxLineLength > 0) {
+                // 最多多看一个字节，用于判断该行是否超长
+                end = (int) Math.min(end, (long) start + maxLineLength - line.length() + 1);
+            }
+            int lineFeed = indexOfLineFeed(buffer, start, end);
+            if (lineFeed >= 0) {
+                line.append(buffer, lineFeed - start);
+                buffer.position(lineFeed + 1);
+                position += lineFeed + 1 - start;
+                stripCarriageReturn(line);
+                return endLine();
+            }
+            int count = end - start;
+            if (maxLineLength > 0) {
+                count = Math.min(count, maxLineLength - line.length());
+            }
+            line.append(buffer, count);
+            position += count;
+            if (maxLineLength > 0 && line.length() >= maxLineLength && buffer.hasRemaining()) {
+                // 已读取maxLineLength字节，且下一个字节不是换行符
+                return oversize(line, acceptPartial);
+            }
+        }
+    }
+
+    private Result endLine() {
+        if (state == STATE_SPLIT) {
+            state = STATE_NONE;
+            return Result.LAST_CHUNK;
+        }
+        return Result.LINE;
+    }
+
+    private Result oversize(LineBuffer line, boolean acceptPartial) throws IOException {
+        switch (oversizeLinePolicy) {
+            case SPLIT:
+                int incomplete = utf8 ? incompleteUtf8Tail(line) : 0;
+                if (incomplete > 0) {
+                    // 不在字符中间分段，未完整的字符留到下一段
+                    line.truncate(line.length() - incomplete);
+                    if (buffer.position() >= incomplete) {
+                        buffer.position(buffer.position() - incomplete);
+                        position -= incomplete;
+                    } else {
+                        reposition(position - incomplete);
+                    }
+                }
+                state = STATE_SPLIT;
+                return Result.CHUNK;
+            case SKIP:
+                line.clear();
+                state = STATE_DISCARD;
+                reportSkipped = true;
+                return discardLine(acceptPartial);
+            case TRUNCATE:
+            default:
+                if (utf8) {
+                    line.truncate(line.length() - incompleteUtf8Tail(line));
+                }
+                state = STATE_DISCARD;
+                reportSkipped = false;
+                return Result.TRUNCATED;
+        }
+    }
+
+    /**
+     * drop the rest of an oversized line without buffering it
+     * @return SKIPPED or EOF, null if the rest of a truncated line was dropped and reading can go on
+     */
+    private Result discardLine(boolean acceptPartial) throws IOException {
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                if (!acceptPartial) {
+                    // 行还未写完，下次继续丢弃
+                    return Result.EOF;
+                }
+                break;
+            }
+            int start = buffer.position();
+            int lineFeed = indexOfLineFeed(buffer, start, buffer.limit());
+            if (lineFeed >= 0) {
+                buffer.position(lineFeed + 1);
+                position += lineFeed + 1 - start;
+                break;
+            }
+            position += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+        state = STATE_NONE;
+        return reportSkipped ? Result.SKIPPED : null;
+    }
+
+    /**
+     * num of bytes at the end of line which belong to an incomplete utf-8 character
+     */
+    private static int incompleteUtf8Tail(LineBuffer line) {
+        byte[] bytes = line.array();
+        int length = line.length();
+        for (int i = 1; i <= 3 && i <= length; i++) {
+            int b = bytes[length - i] & 0xFF;
+            if (b < 0x80) {
+                return 0;
+            }
+            if (b >= 0xC0) {
+                int sequenceLength = b >= 0xF0 ? 4 : (b >= 0xE0 ? 3 : 2);
+                return sequenceLength > i && i < length ? i : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * skip the next line without copying it
+     * @return true if a line was skipped
+     */
+    public boolean skipLine(boolean acceptPartial) throws IOException {
+        long lineStart = position;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                if (position > lineStart && !acceptPartial) {
+                    seek(lineStart);
+                    return false;
+                }
+                return position > lineStart;
+            }
+            int start = buffer.position();
+            int end = indexOfLineFeed(buffer, start, buffer.limit());
+            if (end >= 0) {
+                buffer.position(end + 1);
+                position += end + 1 - start;
+                return true;
+            }
+            position += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+    }
+
+    /**
+     * read up to length raw bytes at the current position, used by the record deserializers
+     * @return bytes read, -1 at end of file
+     */
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = emptyBuffer();
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+            randomAccessFile = null;
+            channel = null;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            // 读取线程被中断时channel会被关闭，重新打开
+            open();
+        }
+        long size = channel.size();
+        if (position >= size) {
+            return false;
+        }
+        if (mmap) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(bufferSize, size - position));
+            return buffer.hasRemaining();
+        }
+        if (!buffer.hasArray() || buffer.capacity() != bufferSize) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        int n = channel.read(buffer, position);
+        buffer.flip();
+        return n > 0;
+    }
+
+    private void open() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+        }
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+    }
+
+    private static int indexOfLineFeed(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int base = buffer.arrayOffset();
+            for (int i = from; i < to; i++) {
+                if (array[base + i] == LF) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void stripCarriageReturn(LineBuffer line) {
+        int length = line.length();
+        if (length > 0 && line.array()[length - 1] == CR) {
+            line.truncate(length - 1);
+        }
+    }
+
+    private static ByteBuffer emptyBuffer() {
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        empty.flip();
+        return empty;
+    }
+}
@@ -9,6 +9,8 @@ public class OffsetInfo {
     private int inode = 0;
     private long offset = 0;
     private long modifiedTime = 0;
+    // 文件内容指纹，旧的offset文件中没有
+    private FileFingerprint fingerprint = null;
 
     // forbid default value
     private OffsetInfo() { }
@@ -20,6 +22,11 @@ public class OffsetInfo {
         this.modifiedTime = modifiedTime;
     }
 
+    public OffsetInfo(String fileName, int inode, long offset, long modifiedTime, FileFingerprint fingerprint) {
+        this(fileName, inode, offset, modifiedTime);
+        this.fingerprint = fingerprint;
+    }
+
     public String getFileName() { return fileName; }
     public void setFileName(String fileName) { this.fileName = fileName; }
     public int getInode() { return inode; }
@@ -28,9 +35,12 @@ public class OffsetInfo {
     public void setOffset(long offset) { this.offset = offset; }
     public long getModifiedTime() { return modifiedTime; }
     public void setModifiedTime(long modifiedTime) { this.modifiedTime = modifiedTime; }
+    public FileFingerprint getFingerprint() { return fingerprint; }
+    public void setFingerprint(FileFingerprint fingerprint) { this.fingerprint = fingerprint; }
 
     public String getOffsetString() {
-        return fileName + "$" + inode + "$" + offset + "$" + modifiedTime;
+        String offsetString = fileName + "$" + inode + "$" + offset + "$" + modifiedTime;
+        return fingerprint == null ? offsetString : offsetString + "$" + fingerprint;
     }
 
     public void setByString(String offsetString) throws OffsetInfoException {
@@ -38,15 +48,16 @@ public class OffsetInfo {
             throw new OffsetInfoException("offsetString is null");
         }
         String[] configs = offsetString.split("\\$");
-        if (configs.length != 4) {
+        if (configs.length != 4 && configs.length != 5) {
             throw new OffsetInfoException("offset string:" + offsetString
-                    + " format error.must be <fileName$inode$offset$modifiedTime>");
+                    + " format error.must be <fileName$inode$offset$modifiedTime[$fingerprint]>");
         }
         this.fileName = configs[0];
         try {
             this.inode = Integer.parseInt(configs[1]);
             this.offset = Long.parseLong(configs[2]);
             this.modifiedTime = Long.parseLong(configs[3]);
+            this.fingerprint = configs.length == 5 ? FileFingerprint.parse(configs[4]) : null;
         } catch (NumberFormatException e) {
             throw new OffsetInfoException("offset string numberFormatException:" + e.getMessage());
         }
@@ -0,0 +1,13 @@
+package flume.source.plugin;
+
+/**
+ * What to do with a line longer than maxLineLength bytes.
+ */
+public enum OversizeLinePolicy {
+    /** keep the first maxLineLength bytes, drop the rest of the line **/
+    TRUNCATE,
+    /** emit the line as several events of at most maxLineLength bytes **/
+    SPLIT,
+    /** drop the whole line **/
+    SKIP
+}
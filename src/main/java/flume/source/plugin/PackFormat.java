@@ -0,0 +1,13 @@
+package flume.source.plugin;
+
+/**
+ * How several lines are packed into the body of one event.
+ */
+public enum PackFormat {
+    /** one event per line **/
+    NONE,
+    /** lines separated by '\n', no terminator after the last line **/
+    NEWLINE,
+    /** every line prefixed by its length as 4 byte big endian int **/
+    LENGTH_PREFIXED
+}
@@ -0,0 +1,130 @@
+package flume.source.plugin;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the reader of a stopped source open for a short time, so the source instance Flume
+ * creates after a configuration change can take it over with its open file, read position
+ * and in-memory offset, instead of re-reading the offset file and replaying the file by lines.
+ * A reader is only handed over if all settings which shape the reader are unchanged, the
+ * live settings (content patterns, batch size, interval) are applied to it afterwards.
+ * Readers nobody claims within the timeout are closed.
+ */
+public class ParkedReaders {
+    private static final Logger logger = LoggerFactory.getLogger(ParkedReaders.class);
+
+    private static final Map<String, Parked> parked = new HashMap<String, Parked>();
+    private static ScheduledThreadPoolExecutor expirer = null;
+
+    /** a parked reader with the state of the source which used it **/
+    public static class Parked {
+        private final Map<String, String> settings;
+        private final ReliableTailSourceEventReader reader;
+        private final Optional<OffsetInfo> offsetInfo;
+        private final ReliableTailSourceCounter sourceCounter;
+
+        private Parked(Map<String, String> settings, ReliableTailSourceEventReader reader,
+                       Optional<OffsetInfo> offsetInfo, ReliableTailSourceCounter sourceCounter) {
+            this.settings = settings;
+            this.reader = reader;
+            this.offsetInfo = offsetInfo;
+            this.sourceCounter = sourceCounter;
+        }
+
+        public ReliableTailSourceEventReader getReader() { return reader; }
+        public Optional<OffsetInfo> getOffsetInfo() { return offsetInfo; }
+        public ReliableTailSourceCounter getSourceCounter() { return sourceCounter; }
+    }
+
+    private ParkedReaders() {
+    }
+
+    /**
+     * park the reader of a stopping source
+     * @param key source name and spool directory
+     * @param settings reader settings of the source, compared on claim
+     * @param offsetInfo offset of the last committed batch, the reader position must be at it
+     * @param timeoutMillis close the reader if not claimed within this time
+     */
+    public static synchronized void park(String key, Map<String, String> settings,
+                                         ReliableTailSourceEventReader reader, Optional<OffsetInfo> offsetInfo,
+                                         ReliableTailSourceCounter sourceCounter, long timeoutMillis) {
+        final Parked previous = parked.remove(key);
+        if (previous != null) {
+            close(key, previous);
+        }
+        final Parked entry = new Parked(settings, reader, offsetInfo, sourceCounter);
+        parked.put(key, entry);
+        final String parkedKey = key;
+        expirer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (remove(parkedKey, entry)) {
+                    logger.info("reader of {} was not claimed. closed it", parkedKey);
+                    close(parkedKey, entry);
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        logger.info("parked reader of {} at offset {} for {} ms", new Object[] {key,
+                offsetInfo.isPresent() ? offsetInfo.get().getOffsetString() : "none", timeoutMillis});
+    }
+
+    /**
+     * take over the parked reader
+     * @return the parked reader, null if there is none or its settings differ, in which case it is closed
+     */
+    public static synchronized Parked claim(String key, Map<String, String> settings) {
+        Parked entry = parked.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.settings.equals(settings)) {
+            logger.info("reader settings of {} changed. will open a new reader", key);
+            close(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private static synchronized boolean remove(String key, Parked entry) {
+        if (parked.get(key) != entry) {
+            return false;
+        }
+        parked.remove(key);
+        return true;
+    }
+
+    private static void close(String key, Parked entry) {
+        try {
+            entry.reader.close();
+        } catch (IOException e) {
+            logger.warn("close parked reader of " + key + " exception:" + e.getMessage());
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor expirer() {
+        if (expirer == null) {
+            expirer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                private final ThreadFactory delegate = Executors.defaultThreadFactory();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = delegate.newThread(runnable);
+                    thread.setName("reliable-tail-parked-" + thread.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return expirer;
+    }
+}
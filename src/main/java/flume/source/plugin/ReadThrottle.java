@@ -0,0 +1,79 @@
+package flume.source.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the read throughput of the reader with token buckets, per source and per file.
+ * Bytes are the bytes read from the file, events are the lines read (before content
+ * filtering, filtered lines cost disk and cpu as well). A limit <= 0 means unlimited.
+ */
+public class ReadThrottle {
+    private static final Logger logger = LoggerFactory.getLogger(ReadThrottle.class);
+
+    private final long fileBytesPerSecond;
+    private final long fileEventsPerSecond;
+    private final TokenBucket sourceBytes;
+    private final TokenBucket sourceEvents;
+    private final ReliableTailSourceCounter counter;
+
+    // 当前文件的token bucket，切换文件后重建
+    private File currentFile = null;
+    private TokenBucket fileBytes;
+    private TokenBucket fileEvents;
+
+    public ReadThrottle(long sourceBytesPerSecond, long sourceEventsPerSecond,
+                        long fileBytesPerSecond, long fileEventsPerSecond,
+                        ReliableTailSourceCounter counter) {
+        this.sourceBytes = sourceBytesPerSecond > 0 ? new TokenBucket(sourceBytesPerSecond) : null;
+        this.sourceEvents = sourceEventsPerSecond > 0 ? new TokenBucket(sourceEventsPerSecond) : null;
+        this.fileBytesPerSecond = fileBytesPerSecond;
+        this.fileEventsPerSecond = fileEventsPerSecond;
+        this.counter = counter;
+    }
+
+    public boolean isEnabled() {
+        return sourceBytes != null || sourceEvents != null || fileBytesPerSecond > 0 || fileEventsPerSecond > 0;
+    }
+
+    /**
+     * account one line read from file, block until the limits allow to go on
+     * @param file file the line was read from
+     * @param bytes bytes of the line
+     * @throws InterruptedException
+     */
+    public void acquire(File file, long bytes) throws InterruptedException {
+        if (!file.equals(currentFile)) {
+            currentFile = file;
+            fileBytes = fileBytesPerSecond > 0 ? new TokenBucket(fileBytesPerSecond) : null;
+            fileEvents = fileEventsPerSecond > 0 ? new TokenBucket(fileEventsPerSecond) : null;
+        }
+        long waitNanos = 0;
+        waitNanos = Math.max(waitNanos, reserve(sourceBytes, bytes));
+        waitNanos = Math.max(waitNanos, reserve(sourceEvents, 1));
+        waitNanos = Math.max(waitNanos, reserve(fileBytes, bytes));
+        waitNanos = Math.max(waitNanos, reserve(fileEvents, 1));
+        if (waitNanos <= 0) {
+            return;
+        }
+        logger.debug("read throttled for {} ns. file:{}", waitNanos, file.getName());
+        if (counter != null) {
+            counter.throttleStarted();
+        }
+        long start = System.nanoTime();
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } finally {
+            if (counter != null) {
+                counter.throttleFinished(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private static long reserve(TokenBucket bucket, long permits) {
+        return bucket == null ? 0 : bucket.reserve(permits);
+    }
+}
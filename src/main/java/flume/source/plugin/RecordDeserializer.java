@@ -0,0 +1,39 @@
+package flume.source.plugin;
+
+import org.apache.flume.Event;
+
+import java.io.IOException;
+
+/**
+ * Reads records of a file into events, in the spirit of Flume's EventDeserializer, on the
+ * byte positioned input of a {@link LineReader} instead of a ResettableInputStream.
+ * The position after the last returned record is what the checkpoint stores as offset, and
+ * {@link #seek(long)} to it resumes reading with the next record. A record which is not
+ * completely written yet is never returned, the input is reset to its start and it is read
+ * again on the next call.
+ * Not thread safe, used by the read thread only.
+ */
+public interface RecordDeserializer {
+
+    /**
+     * @param acceptPartial whether the file is no longer written, so a last record without
+     *                      terminator is read as well
+     * @return the next complete record, null if there is none yet
+     */
+    Event readEvent(boolean acceptPartial) throws IOException;
+
+    /**
+     * position after the last returned record, which {@link #seek(long)} accepts
+     */
+    long getPosition();
+
+    /**
+     * move to a position returned by {@link #getPosition()}, 0 is the start of the file
+     */
+    void seek(long position) throws IOException;
+
+    /**
+     * @return whether reading stopped at data which is not a valid record
+     */
+    boolean isCorrupt();
+}
@@ -0,0 +1,15 @@
+package flume.source.plugin;
+
+/**
+ * Layout of the records in the files read.
+ */
+public enum RecordFormat {
+    /** newline separated text lines, offsets count lines **/
+    LINE,
+    /** every record prefixed by its length as 4 byte big endian int, offsets are byte positions **/
+    LENGTH_PREFIXED,
+    /** json values separated by newlines, a value may span lines. offsets are byte positions **/
+    JSON_LINES,
+    /** avro object container file, offsets are block positions plus the records read of the block **/
+    AVRO
+}
@@ -2,14 +2,12 @@ package flume.source.plugin;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.FlumeException;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.instrumentation.SourceCounter;
 import org.apache.flume.serialization.DecodeErrorPolicy;
 import org.apache.flume.source.AbstractSource;
 import org.apache.log4j.LogManager;
@@ -20,9 +18,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -36,6 +43,18 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
 
     // constants
     private static int POLL_DELAY_MS = 300;
+    // 可在线变更的配置，不影响reader的接管
+    private static final String[] LIVE_SETTINGS = {
+            ReliableTailSourceConfigurationConstants.FILTER_CONTENT_PAT,
+            ReliableTailSourceConfigurationConstants.IGNORE_CONTENT_PAT,
+            ReliableTailSourceConfigurationConstants.BATCH_SIZE,
+            ReliableTailSourceConfigurationConstants.INTERVAL_MILLIS,
+            ReliableTailSourceConfigurationConstants.MAX_BACKOFF,
+            ReliableTailSourceConfigurationConstants.LATENCY_SAMPLE_INTERVAL,
+            ReliableTailSourceConfigurationConstants.READER_REUSE_MILLIS,
+            "channels", "type"};
+    // channel选择器和拦截器的配置，不影响reader
+    private static final String[] CHANNEL_PROCESSOR_PREFIXES = {"selector.", "interceptors."};
 
     // config options
     private String spoolDirectory;
@@ -53,17 +72,74 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
     private int emptyEventsDelay = 100;
     private int maxEmptyEventDelay = 500;
     private boolean saveOffsetOrNot = false;
+    private long maxBytesPerSecond;
+    private long maxEventsPerSecond;
+    private long fileMaxBytesPerSecond;
+    private long fileMaxEventsPerSecond;
+    private int tailBufferSize;
+    private int catchUpBufferSize;
+    private boolean catchUpMmap;
+    private int catchUpBatchMultiplier;
+    private int maxLineLength;
+    private OversizeLinePolicy oversizeLinePolicy;
+    private String timestampFormat;
+    private String timestampTimeZone;
+    private int timestampOffset;
+    private String timestampPattern;
+    private String timestampHeader;
+    private DuplicatePolicy duplicatePolicy;
+    private long duplicateWindowMillis;
+    private long duplicateWindowLines;
+    private int duplicateSlots;
+    private CompletionPolicy completionPolicy;
+    private String completedSuffix;
+    private String archiveDirectory;
+    private long completionGraceMillis;
+    private long maxLagBytes;
+    private long maxLagMillis;
+    private long fastForwardTailBytes;
+    private PackFormat packFormat;
+    private int packLines;
+    private int packBytes;
+    private int latencySampleInterval;
+    private long readerReuseMillis;
+    private int lineIndexInterval;
+    private int recursiveDepth;
+    private List<String> routePatterns;
+    private List<String> routeValues;
+    private String routeDefault;
+    private String routeHeader;
+    private boolean jfrEvents;
+    private String pathPattern;
+    private RecordFormat recordFormat;
+    private int maxRecordLength;
+    private int fingerprintBytes;
+    private int decodeThreads;
+    private int decodeChunkLines;
+    private ShardMode shardMode;
+    private int shardCount;
+    private int shardIndex;
+    private String shardLeaseDirectory;
+    private long shardProbeMillis;
+    // 决定reader行为的配置，不变时配置变更重启的source可接管上一个reader
+    private Map<String, String> readerSettings;
 
     // process info
-    private SourceCounter sourceCounter;
+    private ReliableTailSourceCounter sourceCounter;
     private ReliableTailSourceEventReader reader;
     private ScheduledExecutorService executor;
+    private ReliableTailDirRunnable runner;
+    private Tracer tracer = Tracer.NOOP;
     private Optional<OffsetInfo> lastReadOffsetInfo = Optional.absent();
+    // start()开始的时间，用于统计启动耗时和第一批数据的提交时间
+    private long startNanos;
 
     public synchronized void start() {
         logger.info("ReliableTailSource starting with directory:" + spoolDirectory);
+        startNanos = System.nanoTime();
 
         executor = Executors.newSingleThreadScheduledExecutor();
+        tracer = Tracer.create(jfrEvents);
 
         File directory = new File(spoolDirectory);
         if (!directory.exists() || !directory.isDirectory()) {
@@ -71,7 +147,104 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
             return;
         }
 
-        // read offset config
+        ParkedReaders.Parked parked = readerReuseMillis > 0
+                ? ParkedReaders.claim(parkKey(), readerSettings) : null;
+        if (parked != null) {
+            // 配置变更重启，接管上一个source的reader，保留打开的文件和读取位置
+            reader = parked.getReader();
+            lastReadOffsetInfo = parked.getOffsetInfo();
+            sourceCounter = parked.getSourceCounter();
+            reader.updateContentPatterns(filterContentPattern, ignoreContentPattern);
+            logger.info("take over the running reader. offset:" + (lastReadOffsetInfo.isPresent()
+                    ? lastReadOffsetInfo.get().getOffsetString() : "none"));
+        } else if (!openReader(directory)) {
+            return;
+        }
+
+        // counter启动时清零，必须在读取线程更新第一批数据的提交时间之前启动
+        sourceCounter.start();
+        long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        sourceCounter.setStartupTime(startupMillis);
+        POLL_DELAY_MS = intervalMillis;
+        runner = new ReliableTailDirRunnable(reader, sourceCounter);
+        executor.scheduleWithFixedDelay(runner, 0, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
+
+        logger.info("config ignore content pattern:" + ignoreContentPattern
+                + " filter pattern:" + filterContentPattern);
+
+        super.start();
+        logger.info("ReliableTailSource started in " + startupMillis + " ms");
+    }
+
+    /**
+     * create the reader, then load the offset file, the line index and the directory snapshot
+     * in parallel. they do not depend on each other, and only the first read needs all of them
+     * @return false if the offset file cannot be used
+     */
+    private boolean openReader(File directory) {
+        long beginNanos = System.nanoTime();
+        final ReliableTailSourceEventReader newReader;
+        try {
+            newReader = buildReader(directory);
+        } catch (IOException e) {
+            throw new FlumeException("Error instantiating spooling event parser" + e.getMessage());
+        }
+        ExecutorService recovery = Executors.newFixedThreadPool(2);
+        Future<?> indexLoaded = recovery.submit(new Runnable() {
+            @Override
+            public void run() {
+                newReader.loadLineIndex();
+            }
+        });
+        Future<Integer> snapshotTaken = recovery.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return newReader.snapshotDirectory();
+            }
+        });
+        recovery.shutdown();
+        long offsetBeginNanos = System.nanoTime();
+        boolean loaded = loadOffset();
+        long offsetMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - offsetBeginNanos);
+        int files;
+        try {
+            indexLoaded.get();
+            files = snapshotTaken.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeReader(newReader);
+            throw new FlumeException("Interrupted while recovering the reader state");
+        } catch (ExecutionException e) {
+            closeReader(newReader);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FlumeException("Error recovering the reader state" + e.getCause().getMessage());
+        }
+        if (!loaded) {
+            closeReader(newReader);
+            return false;
+        }
+        reader = newReader;
+        logger.info("offset loaded in " + offsetMillis + " ms, reader opened in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos) + " ms"
+                + (files >= 0 ? " with " + files + " files in the directory snapshot" : ""));
+        return true;
+    }
+
+    private void closeReader(ReliableTailSourceEventReader unusedReader) {
+        try {
+            unusedReader.close();
+        } catch (IOException e) {
+            logger.warn("close reader exception:" + e.getMessage());
+        }
+    }
+
+    /**
+     * load lastReadOffsetInfo from the offset file, without creating it
+     * @return false if the offset file cannot be used
+     */
+    private boolean loadOffset() {
         if (saveOffsetOrNot) {
             File offsetDir = new File(offsetDirectory);
             if (!offsetDir.exists() || !offsetDir.isDirectory()) {
@@ -81,12 +254,7 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
             String offsetFileName = offsetDirectory + "/offset";
             File offsetFile = new File(offsetFileName);
             if (!offsetFile.exists()) {
-                try {
-                    offsetFile.createNewFile();
-                } catch (IOException e) {
-                    logger.error("cannot create offset file:" + offsetFileName);
-                    return;
-                }
+                // 第一次保存offset时创建
                 lastReadOffsetInfo = Optional.absent();
             } else {
                 String offsetConfigs = getOffset();
@@ -100,7 +268,7 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                         lastReadOffsetInfo.get().setByString(offsetConfigs);
                     } catch (OffsetInfoException e) {
                         logger.error("set lastReadOffsetInfo by string exception:" + e.getMessage());
-                        return;
+                        return false;
                     }
                 }
             }
@@ -108,30 +276,68 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
             lastReadOffsetInfo = Optional.absent();
         }
 
-        try {
-            reader = new ReliableTailSourceEventReaderBuilder()
-                    .spoolDirectory(directory)
-                    .offsetDirectory(offsetDirectory)
-                    .ignorePattern(ignorePattern)
-                    .ignoreContentPattern(ignoreContentPattern)
-                    .filterContentPattern(filterContentPattern)
-                    .inputCharset(inputCharset)
-                    .decodeErrorPolicy(decodeErrorPolicy)
-                    .build();
-        } catch (IOException e) {
-            throw new FlumeException("Error instantiating spooling event parser" + e.getMessage());
-        }
-
-        POLL_DELAY_MS = intervalMillis;
-        Runnable runner = new ReliableTailDirRunnable(reader, sourceCounter);
-        executor.scheduleWithFixedDelay(runner, 0, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
-
-        logger.info("config ignore content pattern:" + ignoreContentPattern
-                + " filter pattern:" + filterContentPattern);
+        return true;
+    }
 
-        super.start();
-        logger.info("ReliableTailSource started");
-        sourceCounter.start();
+    private ReliableTailSourceEventReader buildReader(File directory) throws IOException {
+        ReliableTailSourceEventReaderBuilder builder = new ReliableTailSourceEventReaderBuilder()
+                .spoolDirectory(directory)
+                .offsetDirectory(offsetDirectory)
+                .ignorePattern(ignorePattern)
+                .ignoreContentPattern(ignoreContentPattern)
+                .filterContentPattern(filterContentPattern)
+                .inputCharset(inputCharset)
+                .decodeErrorPolicy(decodeErrorPolicy)
+                .maxBytesPerSecond(maxBytesPerSecond)
+                .maxEventsPerSecond(maxEventsPerSecond)
+                .fileMaxBytesPerSecond(fileMaxBytesPerSecond)
+                .fileMaxEventsPerSecond(fileMaxEventsPerSecond)
+                .tailBufferSize(tailBufferSize)
+                .catchUpBufferSize(catchUpBufferSize)
+                .catchUpMmap(catchUpMmap)
+                .catchUpBatchMultiplier(catchUpBatchMultiplier)
+                .maxLineLength(maxLineLength)
+                .oversizeLinePolicy(oversizeLinePolicy)
+                .timestampFormat(timestampFormat)
+                .timestampTimeZone(timestampTimeZone)
+                .timestampOffset(timestampOffset)
+                .timestampPattern(timestampPattern)
+                .timestampHeader(timestampHeader)
+                .duplicatePolicy(duplicatePolicy)
+                .duplicateWindowMillis(duplicateWindowMillis)
+                .duplicateWindowLines(duplicateWindowLines)
+                .duplicateSlots(duplicateSlots)
+                .completionPolicy(completionPolicy)
+                .completedSuffix(completedSuffix)
+                .archiveDirectory(archiveDirectory)
+                .completionGraceMillis(completionGraceMillis)
+                .maxLagBytes(maxLagBytes)
+                .maxLagMillis(maxLagMillis)
+                .fastForwardTailBytes(fastForwardTailBytes)
+                .packFormat(packFormat)
+                .packLines(packLines)
+                .packBytes(packBytes)
+                .lineIndexInterval(lineIndexInterval)
+                .recursiveDepth(recursiveDepth)
+                .pathPattern(pathPattern)
+                .routeDefault(routeDefault)
+                .routeHeader(routeHeader)
+                .recordFormat(recordFormat)
+                .maxRecordLength(maxRecordLength)
+                .fingerprintBytes(fingerprintBytes)
+                .decodeThreads(decodeThreads)
+                .decodeChunkLines(decodeChunkLines)
+                .shardMode(shardMode)
+                .shardCount(shardCount)
+                .shardIndex(shardIndex)
+                .shardLeaseDirectory(shardLeaseDirectory)
+                .shardProbeMillis(shardProbeMillis)
+                .tracer(tracer)
+                .sourceCounter(sourceCounter);
+        for (int i = 0; i < routePatterns.size(); i++) {
+            builder.routeRule(routePatterns.get(i), routeValues.get(i));
+        }
+        return builder.build();
     }
 
     @Override
@@ -143,11 +349,35 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
             logger.info("Interrupted while awaiting termination", ex);
         }
         executor.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(1L, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (reader != null) {
+            if (terminated && readerReuseMillis > 0 && runner != null && runner.isIdle()) {
+                // 读取位置和lastReadOffsetInfo一致时才保留reader
+                ParkedReaders.park(parkKey(), readerSettings, reader, lastReadOffsetInfo,
+                        sourceCounter, readerReuseMillis);
+            } else {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.warn("close reader exception:" + e.getMessage());
+                }
+            }
+            reader = null;
+        }
         super.stop();
         sourceCounter.stop();
         logger.info("SpoolDir source " + getName() + " stopped. Metrics:" + sourceCounter);
     }
 
+    private String parkKey() {
+        return getName() + ":" + new File(spoolDirectory).getAbsolutePath();
+    }
+
     @Override
     public String toString() {
         return "Spool directory source:" + getName() + " spoolDir:" + spoolDirectory;
@@ -166,6 +396,10 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                 ReliableTailSourceConfigurationConstants.DEFAULT_BATCH_SIZE);
         inputCharset = context.getString(ReliableTailSourceConfigurationConstants.INPUT_CHARSET,
                 ReliableTailSourceConfigurationConstants.DEFAULT_INPUT_CHARSET);
+        // 按字节0x0A分行，不支持UTF-16、UTF-32等换行符不是单字节的字符集
+        Preconditions.checkState(Charset.isSupported(inputCharset)
+                        && LineReader.isAsciiCompatible(Charset.forName(inputCharset)),
+                "inputCharset " + inputCharset + " is not supported, lines are split on the byte 0x0A");
         decodeErrorPolicy = DecodeErrorPolicy.valueOf(
                 context.getString(ReliableTailSourceConfigurationConstants.DECODE_ERROR_POLICY,
                         ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_ERROR_POLICY)
@@ -186,6 +420,167 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
         intervalMillis = context.getInteger(ReliableTailSourceConfigurationConstants.INTERVAL_MILLIS,
                 ReliableTailSourceConfigurationConstants.DEFAULT_INTERVAL_MILLIS);
 
+        maxBytesPerSecond = context.getLong(ReliableTailSourceConfigurationConstants.MAX_BYTES_PER_SECOND,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_BYTES_PER_SECOND);
+        maxEventsPerSecond = context.getLong(ReliableTailSourceConfigurationConstants.MAX_EVENTS_PER_SECOND,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_EVENTS_PER_SECOND);
+        fileMaxBytesPerSecond = context.getLong(ReliableTailSourceConfigurationConstants.FILE_MAX_BYTES_PER_SECOND,
+                ReliableTailSourceConfigurationConstants.DEFAULT_FILE_MAX_BYTES_PER_SECOND);
+        fileMaxEventsPerSecond = context.getLong(ReliableTailSourceConfigurationConstants.FILE_MAX_EVENTS_PER_SECOND,
+                ReliableTailSourceConfigurationConstants.DEFAULT_FILE_MAX_EVENTS_PER_SECOND);
+
+        tailBufferSize = context.getInteger(ReliableTailSourceConfigurationConstants.TAIL_BUFFER_SIZE,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TAIL_BUFFER_SIZE);
+        catchUpBufferSize = context.getInteger(ReliableTailSourceConfigurationConstants.CATCH_UP_BUFFER_SIZE,
+                ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_BUFFER_SIZE);
+        catchUpMmap = context.getBoolean(ReliableTailSourceConfigurationConstants.CATCH_UP_MMAP,
+                ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_MMAP);
+        catchUpBatchMultiplier = context.getInteger(ReliableTailSourceConfigurationConstants.CATCH_UP_BATCH_MULTIPLIER,
+                ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_BATCH_MULTIPLIER);
+
+        maxLineLength = context.getInteger(ReliableTailSourceConfigurationConstants.MAX_LINE_LENGTH,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH);
+        oversizeLinePolicy = OversizeLinePolicy.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.OVERSIZE_LINE_POLICY,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_OVERSIZE_LINE_POLICY)
+                        .toUpperCase(Locale.ENGLISH));
+
+        timestampFormat = context.getString(ReliableTailSourceConfigurationConstants.TIMESTAMP_FORMAT,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_FORMAT);
+        timestampTimeZone = context.getString(ReliableTailSourceConfigurationConstants.TIMESTAMP_TIME_ZONE,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_TIME_ZONE);
+        timestampOffset = context.getInteger(ReliableTailSourceConfigurationConstants.TIMESTAMP_OFFSET,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_OFFSET);
+        timestampPattern = context.getString(ReliableTailSourceConfigurationConstants.TIMESTAMP_PATTERN,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_PATTERN);
+        timestampHeader = context.getString(ReliableTailSourceConfigurationConstants.TIMESTAMP_HEADER,
+                ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_HEADER);
+
+        duplicatePolicy = DuplicatePolicy.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.DUPLICATE_POLICY,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_POLICY)
+                        .toUpperCase(Locale.ENGLISH));
+        duplicateWindowMillis = context.getLong(ReliableTailSourceConfigurationConstants.DUPLICATE_WINDOW_MILLIS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_WINDOW_MILLIS);
+        duplicateWindowLines = context.getLong(ReliableTailSourceConfigurationConstants.DUPLICATE_WINDOW_LINES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_WINDOW_LINES);
+        duplicateSlots = context.getInteger(ReliableTailSourceConfigurationConstants.DUPLICATE_SLOTS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_SLOTS);
+
+        completionPolicy = CompletionPolicy.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.COMPLETION_POLICY,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETION_POLICY)
+                        .toUpperCase(Locale.ENGLISH));
+        completedSuffix = context.getString(ReliableTailSourceConfigurationConstants.COMPLETED_SUFFIX,
+                ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETED_SUFFIX);
+        archiveDirectory = context.getString(ReliableTailSourceConfigurationConstants.ARCHIVE_DIRECTORY);
+        completionGraceMillis = context.getLong(ReliableTailSourceConfigurationConstants.COMPLETION_GRACE_MILLIS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETION_GRACE_MILLIS);
+        Preconditions.checkState(completionPolicy != CompletionPolicy.MOVE || archiveDirectory != null,
+                "Configuration must specify archiveDir for completionPolicy MOVE");
+
+        maxLagBytes = context.getLong(ReliableTailSourceConfigurationConstants.MAX_LAG_BYTES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LAG_BYTES);
+        maxLagMillis = context.getLong(ReliableTailSourceConfigurationConstants.MAX_LAG_MILLIS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LAG_MILLIS);
+        fastForwardTailBytes = context.getLong(ReliableTailSourceConfigurationConstants.FAST_FORWARD_TAIL_BYTES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_FAST_FORWARD_TAIL_BYTES);
+
+        packFormat = PackFormat.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.PACK_FORMAT,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_PACK_FORMAT)
+                        .toUpperCase(Locale.ENGLISH));
+        packLines = context.getInteger(ReliableTailSourceConfigurationConstants.PACK_LINES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_PACK_LINES);
+        packBytes = context.getInteger(ReliableTailSourceConfigurationConstants.PACK_BYTES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_PACK_BYTES);
+        Preconditions.checkState(packFormat == PackFormat.NONE || packLines > 0,
+                "Configuration must specify a positive packLines for packFormat " + packFormat);
+
+        latencySampleInterval = context.getInteger(ReliableTailSourceConfigurationConstants.LATENCY_SAMPLE_INTERVAL,
+                ReliableTailSourceConfigurationConstants.DEFAULT_LATENCY_SAMPLE_INTERVAL);
+
+        jfrEvents = context.getBoolean(ReliableTailSourceConfigurationConstants.JFR_EVENTS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_JFR_EVENTS);
+
+        fingerprintBytes = context.getInteger(ReliableTailSourceConfigurationConstants.FINGERPRINT_BYTES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_FINGERPRINT_BYTES);
+
+        decodeThreads = context.getInteger(ReliableTailSourceConfigurationConstants.DECODE_THREADS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_THREADS);
+        decodeChunkLines = context.getInteger(ReliableTailSourceConfigurationConstants.DECODE_CHUNK_LINES,
+                ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_CHUNK_LINES);
+        Preconditions.checkState(decodeChunkLines > 0, "decodeChunkLines must be positive");
+
+        recordFormat = RecordFormat.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.RECORD_FORMAT,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_RECORD_FORMAT)
+                        .toUpperCase(Locale.ENGLISH));
+        maxRecordLength = context.getInteger(ReliableTailSourceConfigurationConstants.MAX_RECORD_LENGTH,
+                ReliableTailSourceConfigurationConstants.DEFAULT_MAX_RECORD_LENGTH);
+        Preconditions.checkState(maxRecordLength > 0, "maxRecordLength must be positive");
+
+        shardMode = ShardMode.valueOf(
+                context.getString(ReliableTailSourceConfigurationConstants.SHARD_MODE,
+                        ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_MODE)
+                        .toUpperCase(Locale.ENGLISH));
+        shardCount = context.getInteger(ReliableTailSourceConfigurationConstants.SHARD_COUNT,
+                ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_COUNT);
+        shardIndex = context.getInteger(ReliableTailSourceConfigurationConstants.SHARD_INDEX,
+                ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_INDEX);
+        shardLeaseDirectory = context.getString(ReliableTailSourceConfigurationConstants.SHARD_LEASE_DIRECTORY);
+        shardProbeMillis = context.getLong(ReliableTailSourceConfigurationConstants.SHARD_PROBE_MILLIS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_PROBE_MILLIS);
+        Preconditions.checkState(shardMode != ShardMode.HASH || (shardIndex >= 0 && shardIndex < shardCount),
+                "Configuration must specify a shardIndex in [0, shardCount) for shardMode HASH");
+        Preconditions.checkState(shardMode != ShardMode.LEASE
+                        || (shardLeaseDirectory != null && !shardLeaseDirectory.isEmpty()),
+                "Configuration must specify shardLeaseDirectory for shardMode LEASE");
+
+        routePatterns = new ArrayList<String>();
+        routeValues = new ArrayList<String>();
+        String routeRules = context.getString(ReliableTailSourceConfigurationConstants.ROUTE_RULES, "").trim();
+        if (!routeRules.isEmpty()) {
+            for (String rule : routeRules.split("\\s+")) {
+                String prefix = ReliableTailSourceConfigurationConstants.ROUTE_RULES + "." + rule + ".";
+                String pattern = context.getString(prefix + ReliableTailSourceConfigurationConstants.ROUTE_RULE_PATTERN);
+                Preconditions.checkState(pattern != null, "Configuration must specify " + prefix
+                        + ReliableTailSourceConfigurationConstants.ROUTE_RULE_PATTERN);
+                routePatterns.add(pattern);
+                routeValues.add(context.getString(prefix + ReliableTailSourceConfigurationConstants.ROUTE_RULE_VALUE,
+                        rule));
+            }
+        }
+        routeDefault = context.getString(ReliableTailSourceConfigurationConstants.ROUTE_DEFAULT,
+                ReliableTailSourceConfigurationConstants.DEFAULT_ROUTE_DEFAULT);
+        routeHeader = context.getString(ReliableTailSourceConfigurationConstants.ROUTE_HEADER,
+                ReliableTailSourceConfigurationConstants.DEFAULT_ROUTE_HEADER);
+
+        recursiveDepth = context.getInteger(ReliableTailSourceConfigurationConstants.RECURSIVE_DEPTH,
+                ReliableTailSourceConfigurationConstants.DEFAULT_RECURSIVE_DEPTH);
+        pathPattern = context.getString(ReliableTailSourceConfigurationConstants.PATH_PATTERN,
+                ReliableTailSourceConfigurationConstants.DEFAULT_PATH_PATTERN);
+
+        lineIndexInterval = context.getInteger(ReliableTailSourceConfigurationConstants.LINE_INDEX_INTERVAL,
+                ReliableTailSourceConfigurationConstants.DEFAULT_LINE_INDEX_INTERVAL);
+
+        readerReuseMillis = context.getLong(ReliableTailSourceConfigurationConstants.READER_REUSE_MILLIS,
+                ReliableTailSourceConfigurationConstants.DEFAULT_READER_REUSE_MILLIS);
+        readerSettings = new HashMap<String, String>(context.getParameters());
+        for (String key : LIVE_SETTINGS) {
+            readerSettings.remove(key);
+        }
+        Iterator<String> keys = readerSettings.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            for (String prefix : CHANNEL_PROCESSOR_PREFIXES) {
+                if (key.startsWith(prefix)) {
+                    keys.remove();
+                    break;
+                }
+            }
+        }
+
         String saveOrNot = context.getString(ReliableTailSourceConfigurationConstants.SAVE_OFFSET_OR_NOT);
         if (saveOrNot == null) {
             saveOffsetOrNot = ReliableTailSourceConfigurationConstants.DEFAULT_SAVE_OFFSET_OR_NOT;
@@ -198,20 +593,44 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                 saveOffsetOrNot = false;
             }
         }
+        // 读完的文件在offset保存后才重命名、移动或删除，不保存offset时无法确认文件已处理
+        Preconditions.checkState(completionPolicy == CompletionPolicy.NONE || saveOffsetOrNot,
+                "Configuration must specify saveOffsetOrNot true for completionPolicy " + completionPolicy);
+        // 租约在offset保存后更新和释放
+        Preconditions.checkState(shardMode != ShardMode.LEASE || saveOffsetOrNot,
+                "Configuration must specify saveOffsetOrNot true for shardMode LEASE");
 
         if (sourceCounter == null) {
-            sourceCounter = new SourceCounter(getName());
+            sourceCounter = new ReliableTailSourceCounter(getName());
         }
     }
 
     private class ReliableTailDirRunnable implements Runnable {
 
         private ReliableTailSourceEventReader reader;
-        private SourceCounter sourceCounter;
-
-        public ReliableTailDirRunnable(ReliableTailSourceEventReader reader, SourceCounter sourceCounter) {
+        private ReliableTailSourceCounter sourceCounter;
+        // 复用的batch列表，channel提交后只保留引用到下一次clear
+        private final List<Event> events;
+        private Optional<OffsetInfo> returnOffset = Optional.absent();
+        // channel写入失败时保留本批数据，下次重试同一批
+        private boolean pendingBatch = false;
+        // reader已读取但lastReadOffsetInfo还未更新
+        private volatile boolean inBatch = false;
+        // 本次启动后是否已提交过数据
+        private boolean firstBatchCommitted = false;
+
+        public ReliableTailDirRunnable(ReliableTailSourceEventReader reader,
+                                       ReliableTailSourceCounter sourceCounter) {
             this.reader = reader;
             this.sourceCounter = sourceCounter;
+            this.events = new ArrayList<Event>(batchSize);
+        }
+
+        /**
+         * whether the reader position matches lastReadOffsetInfo
+         */
+        public boolean isIdle() {
+            return !inBatch;
         }
 
         @Override
@@ -219,12 +638,10 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
             int backoffInterval = 100;
             try {
                 while (!Thread.interrupted()) {
-                    List<Event> events = Lists.newLinkedList();
-                    Optional<OffsetInfo> returnOffset =
-                            reader.readEvents(batchSize, lastReadOffsetInfo, events);
-                    if (events == null) {
-                        logger.info("read events is null");
-                        break;
+                    if (!pendingBatch) {
+                        events.clear();
+                        inBatch = true;
+                        returnOffset = reader.readEvents(batchSize, lastReadOffsetInfo, events);
                     }
                     if (events.isEmpty()) {
                         if (returnOffset.isPresent()) { // 配置为保存offset
@@ -238,9 +655,12 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                                             + " offset string:" + saveOffsetString);
                                     break;
                                 }
+                                // 只有offset保存后才能处理读完的文件
+                                reader.offsetSaved();
                             }
                             lastReadOffsetInfo = returnOffset;
                         }
+                        inBatch = false;
                         emptyEventsCount++;
                         // 如果连续读取空消息5次以上，开始延时读，直至下次读取到消息
                         if (emptyEventsCount > 5) {
@@ -253,11 +673,24 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                     }
                     emptyEventsCount = 0;
                     emptyEventsDelay = 100;
-                    sourceCounter.addToEventReceivedCount(events.size());
-                    sourceCounter.incrementAppendBatchReceivedCount();
+                    if (!pendingBatch) {
+                        sourceCounter.addToEventReceivedCount(events.size());
+                        sourceCounter.incrementAppendBatchReceivedCount();
+                    }
+                    Object channelTrace = tracer.beginChannelPut();
                     try {
                         getChannelProcessor().processEventBatch(events);
+                        tracer.endChannelPut(channelTrace, events.size(), true);
+                        pendingBatch = false;
                         reader.commit();
+                        recordIngestLatency(events, returnOffset);
+                        if (!firstBatchCommitted) {
+                            firstBatchCommitted = true;
+                            long firstEventMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                            sourceCounter.setTimeToFirstEvent(firstEventMillis);
+                            logger.info("first batch of " + events.size() + " events committed "
+                                    + firstEventMillis + " ms after start");
+                        }
                         // save offset here
                         if (!returnOffset.isPresent()) {
                             logger.error("get offset info falied.");
@@ -272,9 +705,13 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
                                         + " offset string:" + saveOffsetString);
                                 break;
                             }
+                            reader.offsetSaved();
                         }
                         lastReadOffsetInfo = returnOffset;
+                        inBatch = false;
                     } catch (ChannelException e) {
+                        tracer.endChannelPut(channelTrace, events.size(), false);
+                        pendingBatch = true;
                         logger.warn("The channel is full, and cannot write data now. The "
                                 + "source will try again after " + String.valueOf(backoffInterval) + " milliseconds");
                         if (backoff) {
@@ -296,6 +733,39 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
         }
     }
 
+    /**
+     * sample the latency from writing to committing to the channel of a committed batch.
+     * uses the timestamp header of every latencySampleInterval-th event if timestamps are
+     * extracted, else the modified time of the file when the batch was read
+     */
+    private void recordIngestLatency(List<Event> events, Optional<OffsetInfo> offsetInfo) {
+        if (latencySampleInterval <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (timestampFormat != null && !timestampFormat.isEmpty()) {
+            for (int i = 0; i < events.size(); i += latencySampleInterval) {
+                Event event = events.get(i);
+                if (event instanceof LineEvent && !((LineEvent) event).hasHeaders()) {
+                    continue;
+                }
+                String timestamp = event.getHeaders().get(timestampHeader);
+                if (timestamp == null) {
+                    continue;
+                }
+                try {
+                    sourceCounter.recordIngestLatency(now - Long.parseLong(timestamp));
+                } catch (NumberFormatException e) {
+                    logger.debug("invalid timestamp header:" + timestamp);
+                }
+            }
+            return;
+        }
+        if (offsetInfo.isPresent() && offsetInfo.get().getModifiedTime() > 0) {
+            sourceCounter.recordIngestLatency(now - offsetInfo.get().getModifiedTime());
+        }
+    }
+
     /**
      * get offset from offset config file
      * @return offset string
@@ -331,6 +801,7 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
      * @return save success return true; save failed return false
      */
     public void setOffset(String offset) throws IOException {
+        Object trace = tracer.beginOffsetSave();
         File file = new File(offsetDirectory + "/offset");
         if (!file.exists()) {
             file.createNewFile();
@@ -343,5 +814,6 @@ public class ReliableTailSource extends AbstractSource implements Configurable,
         fileWriter.write("");
         fileWriter.write(offset);
         fileWriter.close();
+        tracer.endOffsetSave(trace, offset);
     }
 }
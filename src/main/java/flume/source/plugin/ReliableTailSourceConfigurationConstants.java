@@ -37,7 +37,7 @@ public class ReliableTailSourceConfigurationConstants {
     public static final String FILTER_CONTENT_PAT = "filterContentPattern";
     public static final String DEFAULT_FILTER_CONTENT_PAT = ".*";
 
-    /** Character set used when reading the input. */
+    /** Character set used when reading the input, must encode LF as the byte 0x0A (no UTF-16/UTF-32). */
     public static final String INPUT_CHARSET = "inputCharset";
     public static final String DEFAULT_INPUT_CHARSET = "UTF-8";
 
@@ -49,4 +49,191 @@ public class ReliableTailSourceConfigurationConstants {
     // Channel已满时回滚的最大延时（ms）
     public static final String MAX_BACKOFF = "maxBackoff";
     public static final Integer DEFAULT_MAX_BACKOFF = 4000;
+
+    // 整个source每秒最多读取的字节数，<=0 不限速
+    public static final String MAX_BYTES_PER_SECOND = "maxBytesPerSecond";
+    public static final long DEFAULT_MAX_BYTES_PER_SECOND = 0;
+
+    // 整个source每秒最多读取的行数，<=0 不限速
+    public static final String MAX_EVENTS_PER_SECOND = "maxEventsPerSecond";
+    public static final long DEFAULT_MAX_EVENTS_PER_SECOND = 0;
+
+    // 单个文件每秒最多读取的字节数，<=0 不限速
+    public static final String FILE_MAX_BYTES_PER_SECOND = "fileMaxBytesPerSecond";
+    public static final long DEFAULT_FILE_MAX_BYTES_PER_SECOND = 0;
+
+    // 单个文件每秒最多读取的行数，<=0 不限速
+    public static final String FILE_MAX_EVENTS_PER_SECOND = "fileMaxEventsPerSecond";
+    public static final long DEFAULT_FILE_MAX_EVENTS_PER_SECOND = 0;
+
+    // 实时读取最新文件时的读缓冲区大小
+    public static final String TAIL_BUFFER_SIZE = "tailBufferSize";
+    public static final int DEFAULT_TAIL_BUFFER_SIZE = FileInfo.DEFAULT_TAIL_BUFFER_SIZE;
+
+    // 追赶模式（读取已落后的旧文件）的读缓冲区大小
+    public static final String CATCH_UP_BUFFER_SIZE = "catchUpBufferSize";
+    public static final int DEFAULT_CATCH_UP_BUFFER_SIZE = 1024 * 1024;
+
+    // 追赶模式是否使用内存映射读取
+    public static final String CATCH_UP_MMAP = "catchUpMmap";
+    public static final boolean DEFAULT_CATCH_UP_MMAP = false;
+
+    // 追赶模式下每批扫描的行数为batchSize的倍数
+    public static final String CATCH_UP_BATCH_MULTIPLIER = "catchUpBatchMultiplier";
+    public static final int DEFAULT_CATCH_UP_BATCH_MULTIPLIER = 4;
+
+    // 一行的最大字节数，超过后按oversizeLinePolicy处理，<=0 不限制
+    public static final String MAX_LINE_LENGTH = "maxLineLength";
+    public static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+
+    // 超长行处理策略：TRUNCATE（截断），SPLIT（分成多个event），SKIP（丢弃）
+    public static final String OVERSIZE_LINE_POLICY = "oversizeLinePolicy";
+    public static final String DEFAULT_OVERSIZE_LINE_POLICY = OversizeLinePolicy.TRUNCATE.name();
+
+    // 时间戳格式（SimpleDateFormat），配置后从每行提取时间戳放入header，为空不提取
+    public static final String TIMESTAMP_FORMAT = "timestampFormat";
+    public static final String DEFAULT_TIMESTAMP_FORMAT = "";
+
+    // 时间戳的时区，为空使用本地时区
+    public static final String TIMESTAMP_TIME_ZONE = "timestampTimeZone";
+    public static final String DEFAULT_TIMESTAMP_TIME_ZONE = "";
+
+    // 时间戳在行中的起始位置（字符），未配置timestampPattern时使用
+    public static final String TIMESTAMP_OFFSET = "timestampOffset";
+    public static final int DEFAULT_TIMESTAMP_OFFSET = 0;
+
+    // 提取时间戳的正则表达式，group 1为时间戳。
+    // 为空时如果filterContentPattern中有名为timestamp的group，直接使用该group
+    public static final String TIMESTAMP_PATTERN = "timestampPattern";
+    public static final String DEFAULT_TIMESTAMP_PATTERN = "";
+
+    // 时间戳header名
+    public static final String TIMESTAMP_HEADER = "timestampHeader";
+    public static final String DEFAULT_TIMESTAMP_HEADER = "timestamp";
+
+    // 重复行处理：NONE（不处理），DROP（丢弃），COLLAPSE（丢弃并输出带重复次数的汇总event）
+    public static final String DUPLICATE_POLICY = "duplicatePolicy";
+    public static final String DEFAULT_DUPLICATE_POLICY = DuplicatePolicy.NONE.name();
+
+    // 重复行判断的时间窗口（ms），<=0 不按时间限制
+    public static final String DUPLICATE_WINDOW_MILLIS = "duplicateWindowMillis";
+    public static final long DEFAULT_DUPLICATE_WINDOW_MILLIS = 60000;
+
+    // 重复行判断的行数窗口，<=0 不按行数限制
+    public static final String DUPLICATE_WINDOW_LINES = "duplicateWindowLines";
+    public static final long DEFAULT_DUPLICATE_WINDOW_LINES = 0;
+
+    // 记录的不同行数（固定内存）
+    public static final String DUPLICATE_SLOTS = "duplicateSlots";
+    public static final int DEFAULT_DUPLICATE_SLOTS = 4096;
+
+    // 读完并保存offset后的文件处理：NONE（不处理），RENAME（加后缀），MOVE（移到archiveDir），DELETE（删除）
+    public static final String COMPLETION_POLICY = "completionPolicy";
+    public static final String DEFAULT_COMPLETION_POLICY = CompletionPolicy.NONE.name();
+
+    // RENAME时添加的后缀，带该后缀的文件不再读取
+    public static final String COMPLETED_SUFFIX = "completedSuffix";
+    public static final String DEFAULT_COMPLETED_SUFFIX = ".COMPLETED";
+
+    // MOVE时的归档文件夹
+    public static final String ARCHIVE_DIRECTORY = "archiveDir";
+
+    // 文件读完后延迟多久再处理（ms）
+    public static final String COMPLETION_GRACE_MILLIS = "completionGraceMillis";
+    public static final long DEFAULT_COMPLETION_GRACE_MILLIS = 60000;
+
+    // 落后超过该字节数时跳到最新文件末尾附近读取（丢弃中间数据），<=0 不跳过
+    public static final String MAX_LAG_BYTES = "maxLagBytes";
+    public static final long DEFAULT_MAX_LAG_BYTES = 0;
+
+    // 正在读取的文件最后修改时间落后超过该毫秒数时跳到最新文件末尾附近读取，<=0 不跳过
+    public static final String MAX_LAG_MILLIS = "maxLagMillis";
+    public static final long DEFAULT_MAX_LAG_MILLIS = 0;
+
+    // 跳到最新文件时，从距文件末尾多少字节处开始读取
+    public static final String FAST_FORWARD_TAIL_BYTES = "fastForwardTailBytes";
+    public static final long DEFAULT_FAST_FORWARD_TAIL_BYTES = 1024 * 1024;
+
+    // 读取子目录中文件的层数，0 只读取spoolDir中的文件。递归时offset中的文件名为相对spoolDir的路径
+    public static final String RECURSIVE_DEPTH = "recursiveDepth";
+    public static final int DEFAULT_RECURSIVE_DEPTH = 0;
+
+    // 文件相对spoolDir的路径（不递归时为文件名）需匹配的正则，空不过滤
+    public static final String PATH_PATTERN = "filePathPattern";
+    public static final String DEFAULT_PATH_PATTERN = "";
+
+    // 解码、过滤行的线程数，读取线程按行切块后并行处理，按文件顺序合并结果，<=0 在读取线程中处理
+    // 记录格式非LINE或超长行策略为SPLIT时不使用
+    public static final String DECODE_THREADS = "decodeThreads";
+    public static final int DEFAULT_DECODE_THREADS = 0;
+    // 并行处理时每块的最大行数
+    public static final String DECODE_CHUNK_LINES = "decodeChunkLines";
+    public static final int DEFAULT_DECODE_CHUNK_LINES = 512;
+
+    // 文件内容指纹（前fingerprintBytes字节的hash及长度）保存在offset中，重启时按文件名、inode、指纹查找文件，
+    // 拒绝inode被新文件重用的文件，inode改变的副本（如copytruncate）按指纹找到，<=0 只按inode查找。
+    // 开启后offset增加第5个字段，旧版本无法解析，因此默认关闭
+    public static final String FINGERPRINT_BYTES = "fingerprintBytes";
+    public static final int DEFAULT_FINGERPRINT_BYTES = 0;
+
+    // 记录格式：LINE 文本行，LENGTH_PREFIXED 4字节长度前缀的二进制记录，JSON_LINES 换行分隔（可跨行）的json，
+    // AVRO avro容器文件。非LINE格式的offset为记录位置而不是行数，内容过滤、时间戳、打包和路由只对LINE生效，
+    // 记录最大长度为maxRecordLength
+    public static final String RECORD_FORMAT = "recordFormat";
+    public static final String DEFAULT_RECORD_FORMAT = "LINE";
+
+    // 非LINE格式记录的最大长度，更长的json记录被丢弃，更大的长度前缀视为文件损坏并跳过该文件
+    public static final String MAX_RECORD_LENGTH = "maxRecordLength";
+    public static final int DEFAULT_MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    // 多个source分读同一目录：NONE 不分片，HASH 按inode对shardCount取模等于shardIndex的文件由本source读取，
+    // LEASE 对shardLeaseDirectory（各source共用，offsetDir仍需各自独立）中的租约文件加锁后读取，
+    // 进程退出后锁自动释放，其他source每隔shardProbeMillis检查一次并从租约记录的offset接管
+    public static final String SHARD_MODE = "shardMode";
+    public static final String DEFAULT_SHARD_MODE = "NONE";
+    public static final String SHARD_COUNT = "shardCount";
+    public static final int DEFAULT_SHARD_COUNT = 1;
+    public static final String SHARD_INDEX = "shardIndex";
+    public static final int DEFAULT_SHARD_INDEX = 0;
+    public static final String SHARD_LEASE_DIRECTORY = "shardLeaseDirectory";
+    public static final String SHARD_PROBE_MILLIS = "shardProbeMillis";
+    public static final long DEFAULT_SHARD_PROBE_MILLIS = 10000;
+
+    // 是否输出JFR事件（读取批次、目录扫描、写入channel、保存offset），需要JDK 11及以上
+    public static final String JFR_EVENTS = "jfrEvents";
+    public static final boolean DEFAULT_JFR_EVENTS = false;
+
+    // 按内容路由：routeRules为空格分隔的规则名，按顺序匹配 routeRules.<name>.pattern，
+    // 第一个匹配的规则的 routeRules.<name>.value（默认为规则名）写入routeHeader，都不匹配时写入routeDefault（空则不写）
+    public static final String ROUTE_RULES = "routeRules";
+    public static final String ROUTE_RULE_PATTERN = "pattern";
+    public static final String ROUTE_RULE_VALUE = "value";
+    public static final String ROUTE_DEFAULT = "routeDefault";
+    public static final String DEFAULT_ROUTE_DEFAULT = "";
+    public static final String ROUTE_HEADER = "routeHeader";
+    public static final String DEFAULT_ROUTE_HEADER = "route";
+
+    // 每隔多少行记录一次行号对应的字节位置，保存在offset文件夹，重启时按行号定位只需扫描少量行，<=0 不记录
+    public static final String LINE_INDEX_INTERVAL = "lineIndexInterval";
+    public static final int DEFAULT_LINE_INDEX_INTERVAL = 10000;
+
+    // source停止后保留reader（打开的文件和读取位置）的时间，配置变更重启的source可直接接管，<=0 不保留
+    // 仅filterContentPattern、ignoreContentPattern、batchSize、intervalMillis等可在线变更的配置改变时接管。
+    // 保留期间文件、线程和租约锁都不释放，因此默认关闭
+    public static final String READER_REUSE_MILLIS = "readerReuseMillis";
+    public static final long DEFAULT_READER_REUSE_MILLIS = 0;
+
+    // 多行打包成一个event：NONE 不打包，NEWLINE 换行分隔，LENGTH_PREFIXED 4字节长度前缀
+    // 满packLines行或packBytes字节（<=0 不限制）时结束一个包
+    public static final String PACK_FORMAT = "packFormat";
+    public static final String DEFAULT_PACK_FORMAT = "NONE";
+    public static final String PACK_LINES = "packLines";
+    public static final int DEFAULT_PACK_LINES = 100;
+    public static final String PACK_BYTES = "packBytes";
+    public static final int DEFAULT_PACK_BYTES = 64 * 1024;
+
+    // 每隔多少个event采样一次写入到提交channel的延迟，<=0 不统计
+    // 有时间戳header时使用行内时间，否则每批按文件修改时间采样一次
+    public static final String LATENCY_SAMPLE_INTERVAL = "latencySampleInterval";
+    public static final int DEFAULT_LATENCY_SAMPLE_INTERVAL = 100;
 }
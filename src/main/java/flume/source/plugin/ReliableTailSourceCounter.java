@@ -0,0 +1,142 @@
+package flume.source.plugin;
+
+import org.apache.flume.instrumentation.SourceCounter;
+
+/**
+ * SourceCounter with the reliable tail source specific metrics.
+ */
+public class ReliableTailSourceCounter extends SourceCounter implements ReliableTailSourceCounterMBean {
+
+    // 因限速而等待的次数
+    private static final String COUNTER_THROTTLE_COUNT = "src.throttle.count";
+    // 因限速而等待的总时间（ms）
+    private static final String COUNTER_THROTTLE_TIME_MS = "src.throttle.time.ms";
+    // 当前是否处于限速等待中（1：是 0：否）
+    private static final String GAUGE_THROTTLE_ACTIVE = "src.throttle.active";
+
+    // 超过maxLineLength的行数
+    private static final String COUNTER_OVERSIZE_LINE_COUNT = "src.oversize.line.count";
+
+    // 被抑制的重复行数
+    private static final String COUNTER_DUPLICATE_SUPPRESSED_COUNT = "src.duplicate.suppressed.count";
+
+    // 因落后过多而跳到最新文件的次数，跳过的字节数和估算的行数
+    private static final String COUNTER_FAST_FORWARD_COUNT = "src.fastforward.count";
+    private static final String COUNTER_FAST_FORWARD_SKIPPED_BYTES = "src.fastforward.skipped.bytes";
+    private static final String COUNTER_FAST_FORWARD_SKIPPED_LINES = "src.fastforward.skipped.lines";
+
+    // 启动耗时（ms）：start()到reader可以读取；启动到第一批数据提交到channel的时间（ms），未提交过为0
+    private static final String GAUGE_STARTUP_TIME_MS = "src.startup.time.ms";
+    private static final String GAUGE_FIRST_EVENT_TIME_MS = "src.first.event.time.ms";
+
+    private static final String[] ATTRIBUTES = {
+            COUNTER_THROTTLE_COUNT, COUNTER_THROTTLE_TIME_MS, GAUGE_THROTTLE_ACTIVE,
+            COUNTER_OVERSIZE_LINE_COUNT, COUNTER_DUPLICATE_SUPPRESSED_COUNT,
+            COUNTER_FAST_FORWARD_COUNT, COUNTER_FAST_FORWARD_SKIPPED_BYTES, COUNTER_FAST_FORWARD_SKIPPED_LINES,
+            GAUGE_STARTUP_TIME_MS, GAUGE_FIRST_EVENT_TIME_MS
+    };
+
+    // 写入到提交channel的延迟（ms）统计窗口，JMX报告最近一到两个窗口的数据
+    private static final long LATENCY_WINDOW_MS = 60000;
+
+    private LatencyHistogram currentLatency = new LatencyHistogram();
+    private LatencyHistogram previousLatency = new LatencyHistogram();
+    private long latencyWindowStart = System.currentTimeMillis();
+
+    public ReliableTailSourceCounter(String name) {
+        super(name, ATTRIBUTES);
+    }
+
+    @Override
+    public long getThrottleCount() { return get(COUNTER_THROTTLE_COUNT); }
+    @Override
+    public long getThrottleTimeMillis() { return get(COUNTER_THROTTLE_TIME_MS); }
+    @Override
+    public long getThrottleActive() { return get(GAUGE_THROTTLE_ACTIVE); }
+    @Override
+    public long getOversizeLineCount() { return get(COUNTER_OVERSIZE_LINE_COUNT); }
+    @Override
+    public long getDuplicateSuppressedCount() { return get(COUNTER_DUPLICATE_SUPPRESSED_COUNT); }
+    @Override
+    public long getFastForwardCount() { return get(COUNTER_FAST_FORWARD_COUNT); }
+    @Override
+    public long getFastForwardSkippedBytes() { return get(COUNTER_FAST_FORWARD_SKIPPED_BYTES); }
+    @Override
+    public long getFastForwardSkippedLines() { return get(COUNTER_FAST_FORWARD_SKIPPED_LINES); }
+    @Override
+    public long getStartupTimeMillis() { return get(GAUGE_STARTUP_TIME_MS); }
+    @Override
+    public long getTimeToFirstEventMillis() { return get(GAUGE_FIRST_EVENT_TIME_MS); }
+    @Override
+    public long getIngestLatencyCount() { return latencySnapshot().getCount(); }
+    @Override
+    public long getIngestLatencyP50Millis() { return latencySnapshot().getValueAtPercentile(50); }
+    @Override
+    public long getIngestLatencyP99Millis() { return latencySnapshot().getValueAtPercentile(99); }
+    @Override
+    public long getIngestLatencyMaxMillis() { return latencySnapshot().getMax(); }
+
+    public void throttleStarted() {
+        increment(COUNTER_THROTTLE_COUNT);
+        set(GAUGE_THROTTLE_ACTIVE, 1);
+    }
+
+    public void throttleFinished(long waitMillis) {
+        addAndGet(COUNTER_THROTTLE_TIME_MS, waitMillis);
+        set(GAUGE_THROTTLE_ACTIVE, 0);
+    }
+
+    public long incrementOversizeLineCount() {
+        return increment(COUNTER_OVERSIZE_LINE_COUNT);
+    }
+
+    public long incrementDuplicateSuppressedCount() {
+        return increment(COUNTER_DUPLICATE_SUPPRESSED_COUNT);
+    }
+
+    /**
+     * record the latency from writing a line to committing it to the channel
+     */
+    public synchronized void recordIngestLatency(long latencyMillis) {
+        rotateLatencyWindow();
+        currentLatency.record(latencyMillis);
+    }
+
+    private synchronized LatencyHistogram latencySnapshot() {
+        rotateLatencyWindow();
+        LatencyHistogram snapshot = new LatencyHistogram();
+        snapshot.add(previousLatency);
+        snapshot.add(currentLatency);
+        return snapshot;
+    }
+
+    private void rotateLatencyWindow() {
+        long now = System.currentTimeMillis();
+        if (now - latencyWindowStart < LATENCY_WINDOW_MS) {
+            return;
+        }
+        LatencyHistogram oldest = previousLatency;
+        oldest.reset();
+        if (now - latencyWindowStart >= 2 * LATENCY_WINDOW_MS) {
+            // 超过两个窗口没有数据
+            currentLatency.reset();
+        }
+        previousLatency = currentLatency;
+        currentLatency = oldest;
+        latencyWindowStart = now;
+    }
+
+    public void setStartupTime(long millis) {
+        set(GAUGE_STARTUP_TIME_MS, millis);
+    }
+
+    public void setTimeToFirstEvent(long millis) {
+        set(GAUGE_FIRST_EVENT_TIME_MS, millis);
+    }
+
+    public void fastForwarded(long skippedBytes, long skippedLines) {
+        increment(COUNTER_FAST_FORWARD_COUNT);
+        addAndGet(COUNTER_FAST_FORWARD_SKIPPED_BYTES, skippedBytes);
+        addAndGet(COUNTER_FAST_FORWARD_SKIPPED_LINES, skippedLines);
+    }
+}
@@ -0,0 +1,23 @@
+package flume.source.plugin;
+
+import org.apache.flume.instrumentation.SourceCounterMBean;
+
+/**
+ * JMX view of {@link ReliableTailSourceCounter}.
+ */
+public interface ReliableTailSourceCounterMBean extends SourceCounterMBean {
+    long getThrottleCount();
+    long getThrottleTimeMillis();
+    long getThrottleActive();
+    long getOversizeLineCount();
+    long getDuplicateSuppressedCount();
+    long getFastForwardCount();
+    long getFastForwardSkippedBytes();
+    long getFastForwardSkippedLines();
+    long getStartupTimeMillis();
+    long getTimeToFirstEventMillis();
+    long getIngestLatencyCount();
+    long getIngestLatencyP50Millis();
+    long getIngestLatencyP99Millis();
+    long getIngestLatencyMaxMillis();
+}
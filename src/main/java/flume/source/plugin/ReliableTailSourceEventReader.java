@@ -1,6 +1,5 @@
 package flume.source.plugin;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -8,16 +7,25 @@ import com.google.common.io.Files;
 import org.apache.flume.Event;
 import org.apache.flume.FlumeException;
 import org.apache.flume.client.avro.ReliableEventReader;
-import org.apache.flume.event.EventBuilder;
 import org.apache.flume.serialization.DecodeErrorPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -29,15 +37,81 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
     private static final Logger logger = LoggerFactory
             .getLogger(ReliableTailSourceEventReader.class);
 
+    // 检查是否落后的最小间隔
+    private static final long LAG_CHECK_INTERVAL_MS = 10000;
+
     private final File spoolDirectory;                 // spool dir
     private final Pattern ignorePattern;               // ignore pattern
-    private final Pattern ignoreContentPattern;
-    private final Pattern filterContentPattern;
+    private Pattern ignoreContentPattern;
+    private Pattern filterContentPattern;
+    // 运行中更新的内容过滤规则，在两次读取之间生效
+    private final AtomicReference<Pattern[]> pendingContentPatterns = new AtomicReference<Pattern[]>();
 
     private final Charset inputCharset;
     private final DecodeErrorPolicy decodeErrorPolicy;
+    private final ReadThrottle readThrottle;
+    private final int tailBufferSize;
+    private final int catchUpBufferSize;
+    private final boolean catchUpMmap;
+    private final int catchUpBatchMultiplier;
 
     private final Charset outputCharset = Charset.forName("UTF-8");
+    private final EventBatchBuilder batchBuilder = new EventBatchBuilder(outputCharset);
+    private final LineDecoder lineDecoder;
+    private final LineBuffer lineBuffer = new LineBuffer(1024);
+    // 输入输出编码相同时，直接使用原始字节作为event body
+    private final boolean rawBody;
+    // 最近一次readLines是否读到了文件末尾
+    private boolean endOfFile = false;
+    // 超长行限制，<=0 不限制
+    private final int maxLineLength;
+    private final OversizeLinePolicy oversizeLinePolicy;
+    // 是否正在分段读取超长行
+    private boolean splittingLine = false;
+    private final ReliableTailSourceCounter sourceCounter;
+    // 复用的正则matcher，避免每行创建
+    private Matcher filterContentMatcher;
+    private Matcher ignoreContentMatcher;
+    // 从行内容中提取时间戳，未配置时为null
+    private TimestampExtractor timestampExtractor;
+    private final String timestampFormat;
+    private final String timestampTimeZone;
+    private final int timestampOffset;
+    private final String timestampPattern;
+    private final String timestampHeader;
+    // 重复行抑制，未配置时为null
+    private final DuplicateSuppressor duplicateSuppressor;
+    // 读完的文件的处理（重命名、移动、删除），未配置时为null
+    private final CompletedFileHandler completedFileHandler;
+    // 落后超过maxLagBytes字节或maxLagMillis毫秒时，跳到最新文件末尾附近，<=0 不跳过
+    private final long maxLagBytes;
+    private final long maxLagMillis;
+    private final long fastForwardTailBytes;
+    // 多行打包成一个event，未配置时为null
+    private final LinePacker linePacker;
+    // 按内容设置路由header，未配置时为null
+    private final RouteRules routeRules;
+    private final String routeHeader;
+    // 行号到字节位置的稀疏索引，保存在offset文件夹，未配置时为null
+    private final LineIndex lineIndex;
+    private final File lineIndexFile;
+    private long lastLagCheckTime = 0;
+    // 已读取的字节数和行数，用于估算跳过的行数
+    private long bytesRead = 0;
+    private long linesRead = 0;
+    // 被内容过滤规则丢弃的行数
+    private long filteredLines = 0;
+    private final Tracer tracer;
+    // 记录格式，非LINE时由deserializer读取记录，offset为记录位置
+    private final RecordFormat recordFormat;
+    private final int maxRecordLength;
+    // 多个source分读同一目录，未配置时为null
+    private final FileShards fileShards;
+    // 多线程解码、过滤行，未配置时为null
+    private final LinePipeline linePipeline;
+    // 最近一次readEvents返回的offset及对应的字节位置，保存后写入租约
+    private Optional<OffsetInfo> lastOffsetInfo = Optional.absent();
+    private long lastPosition = 0;
 
     private Optional<FileInfo> currentFile = Optional.absent();
     private Optional<FileInfo> newerFile = Optional.absent();
@@ -48,56 +122,181 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
 
     /**
      * Create a ReliableTailSourceEventReader to watch the given directory.
+     * use {@link ReliableTailSourceEventReaderBuilder#build()}
      */
-
-    public ReliableTailSourceEventReader(File spoolDirectory,
-                                         String offsetDirectory,
-                                         String ignorePattern,
-                                         String ignoreContentPattern,
-                                         String filterContentPattern,
-                                         String inputCharset,
-                                         DecodeErrorPolicy decodeErrorPolicy) throws IOException {
+    ReliableTailSourceEventReader(ReliableTailSourceEventReaderBuilder builder) throws IOException {
 
         // Sanity checks
-        Preconditions.checkNotNull(spoolDirectory);
-        Preconditions.checkNotNull(offsetDirectory);
-        Preconditions.checkNotNull(ignorePattern);
-        Preconditions.checkNotNull(ignoreContentPattern);
-        Preconditions.checkNotNull(filterContentPattern);
-        Preconditions.checkNotNull(inputCharset);
+        Preconditions.checkNotNull(builder.spoolDirectory);
+        Preconditions.checkNotNull(builder.offsetDirectory);
+        Preconditions.checkNotNull(builder.ignorePattern);
+        Preconditions.checkNotNull(builder.ignoreContentPattern);
+        Preconditions.checkNotNull(builder.filterContentPattern);
+        Preconditions.checkNotNull(builder.inputCharset);
 
         logger.info("Initializing {} with directory={}," ,
-                new Object[] {ReliableTailSourceEventReader .class.getSimpleName(), spoolDirectory});
+                new Object[] {ReliableTailSourceEventReader .class.getSimpleName(), builder.spoolDirectory});
 
         // Verify directory exists and is readable/writable
-        Preconditions.checkState(spoolDirectory.exists(),
-                "Directory does not exist: " + spoolDirectory.getAbsolutePath());
-        Preconditions.checkState(spoolDirectory.isDirectory(),
-                "Path is not a directory: " + spoolDirectory.getAbsolutePath());
+        Preconditions.checkState(builder.spoolDirectory.exists(),
+                "Directory does not exist: " + builder.spoolDirectory.getAbsolutePath());
+        Preconditions.checkState(builder.spoolDirectory.isDirectory(),
+                "Path is not a directory: " + builder.spoolDirectory.getAbsolutePath());
 
-        // Do a canary test to make sure we have access to spooling directory
+        // 只读检查目录权限，不在目录中创建文件；只有处理读完的文件时需要写权限
+        Path directoryPath = builder.spoolDirectory.toPath();
+        if (!java.nio.file.Files.isReadable(directoryPath) || !java.nio.file.Files.isExecutable(directoryPath)) {
+            throw new FlumeException("Unable to list and read files in the spooling directory: "
+                    + builder.spoolDirectory);
+        }
+        if (builder.completionPolicy != CompletionPolicy.NONE && !java.nio.file.Files.isWritable(directoryPath)) {
+            throw new FlumeException("Unable to modify files in the spooling directory: " + builder.spoolDirectory
+                    + " required by completion policy " + builder.completionPolicy);
+        }
+
+        this.spoolDirectory = builder.spoolDirectory;
+        this.ignorePattern = Pattern.compile(builder.ignorePattern);
+        this.ignoreContentPattern = Pattern.compile(builder.ignoreContentPattern);
+        this.filterContentPattern = Pattern.compile(builder.filterContentPattern);
+        this.inputCharset = Charset.forName(builder.inputCharset);
+        this.decodeErrorPolicy = Preconditions.checkNotNull(builder.decodeErrorPolicy);
+        this.readThrottle = builder.createReadThrottle();
+        Preconditions.checkArgument(builder.tailBufferSize > 0, "tailBufferSize must be positive");
+        Preconditions.checkArgument(builder.catchUpBufferSize > 0, "catchUpBufferSize must be positive");
+        Preconditions.checkArgument(builder.catchUpBatchMultiplier > 0, "catchUpBatchMultiplier must be positive");
+        this.tailBufferSize = builder.tailBufferSize;
+        this.catchUpBufferSize = builder.catchUpBufferSize;
+        this.catchUpMmap = builder.catchUpMmap;
+        this.catchUpBatchMultiplier = builder.catchUpBatchMultiplier;
+        this.lineDecoder = new LineDecoder(this.inputCharset);
+        this.rawBody = this.inputCharset.equals(outputCharset);
+        this.maxLineLength = builder.maxLineLength;
+        this.recordFormat = Preconditions.checkNotNull(builder.recordFormat);
+        Preconditions.checkArgument(builder.maxRecordLength > 0, "maxRecordLength must be positive");
+        this.maxRecordLength = builder.maxRecordLength;
+        this.oversizeLinePolicy = Preconditions.checkNotNull(builder.oversizeLinePolicy);
+        this.sourceCounter = builder.sourceCounter;
+        this.filterContentMatcher = this.filterContentPattern.matcher("");
+        this.ignoreContentMatcher = this.ignoreContentPattern.matcher("");
+        this.timestampFormat = builder.timestampFormat;
+        this.timestampTimeZone = builder.timestampTimeZone;
+        this.timestampOffset = builder.timestampOffset;
+        this.timestampPattern = builder.timestampPattern;
+        this.timestampExtractor = createTimestampExtractor();
+        if (timestampExtractor != null) {
+            logger.info("extract timestamp with format:{} into header:{}. use filter group:{}",
+                    new Object[] {timestampFormat, builder.timestampHeader, timestampExtractor.usesFilterGroup()});
+        }
+        this.timestampHeader = Preconditions.checkNotNull(builder.timestampHeader);
+        this.duplicateSuppressor = builder.createDuplicateSuppressor();
+        this.fileShards = builder.createFileShards();
+        this.spoolingDirManager = new SpoolingDirManager(this.spoolDirectory, this.ignorePattern,
+                builder.completionPolicy == CompletionPolicy.RENAME ? builder.completedSuffix : null,
+                builder.recursiveDepth,
+                builder.pathPattern == null || builder.pathPattern.isEmpty()
+                        ? null : Pattern.compile(builder.pathPattern),
+                builder.tracer, fileShards, builder.fingerprintBytes);
+        this.maxLagBytes = builder.maxLagBytes;
+        this.maxLagMillis = builder.maxLagMillis;
+        this.fastForwardTailBytes = Math.max(0, builder.fastForwardTailBytes);
+        this.linePacker = builder.createLinePacker();
+        this.routeRules = builder.createRouteRules();
+        this.routeHeader = Preconditions.checkNotNull(builder.routeHeader);
+        this.tracer = Preconditions.checkNotNull(builder.tracer);
+        if (builder.lineIndexInterval > 0 && builder.recordFormat == RecordFormat.LINE) {
+            this.lineIndex = new LineIndex(builder.lineIndexInterval);
+            // 由loadLineIndex()在第一次读取前载入
+            this.lineIndexFile = new File(builder.offsetDirectory, "lineindex");
+        } else {
+            this.lineIndex = null;
+            this.lineIndexFile = null;
+        }
+        if (builder.decodeThreads > 0 && recordFormat == RecordFormat.LINE
+                && oversizeLinePolicy != OversizeLinePolicy.SPLIT) {
+            this.linePipeline = new LinePipeline(builder.decodeThreads, builder.decodeChunkLines, this.inputCharset,
+                    outputCharset, routeRules, this.routeHeader, this.timestampHeader, linePacker == null,
+                    duplicateSuppressor != null);
+            linePipeline.setContentRules(this.filterContentPattern, this.ignoreContentPattern, timestampExtractor);
+            logger.info("decode lines with {} threads, chunk lines:{}",
+                    builder.decodeThreads, builder.decodeChunkLines);
+        } else {
+            if (builder.decodeThreads > 0) {
+                // 分段的超长行不能从中间退回重读，记录格式由deserializer逐条读取
+                logger.warn("decode threads are not used with record format {} and oversize line policy {}",
+                        recordFormat, oversizeLinePolicy);
+            }
+            this.linePipeline = null;
+        }
+        if (builder.completionPolicy == CompletionPolicy.NONE) {
+            this.completedFileHandler = null;
+        } else {
+            this.completedFileHandler = new CompletedFileHandler(builder.completionPolicy, builder.completedSuffix,
+                    builder.archiveDirectory, builder.completionGraceMillis, spoolingDirManager);
+        }
+    }
+
+    /**
+     * load the line index saved by the last run. call it once before the first read, it may
+     * run in parallel with {@link #snapshotDirectory()}
+     */
+    public void loadLineIndex() {
+        if (lineIndex == null) {
+            return;
+        }
         try {
-            File canary = File.createTempFile("flume-spooldir-perm-check-", ".canary",
-                    spoolDirectory);
-            Files.write("testing flume file permissions\n", canary, Charsets.UTF_8);
-            List<String> lines = Files.readLines(canary, Charsets.UTF_8);
-            Preconditions.checkState(!lines.isEmpty(), "Empty canary file %s", canary);
-            if (!canary.delete()) {
-                throw new IOException("Unable to delete canary file " + canary);
-            }
-            logger.debug("Successfully created and deleted canary file: {}", canary);
+            if (lineIndex.load(lineIndexFile)) {
+                logger.info("loaded line index of inode:{} entries:{}", lineIndex.getInode(), lineIndex.size());
+            }
         } catch (IOException e) {
-            throw new FlumeException("Unable to read and modify files"
-                    + " in the spooling directory: " + spoolDirectory, e);
+            logger.warn("load line index exception, will rebuild it:" + e.getMessage());
         }
+    }
 
-        this.spoolDirectory = spoolDirectory;
-        this.ignorePattern = Pattern.compile(ignorePattern);
-        this.ignoreContentPattern = Pattern.compile(ignoreContentPattern);
-        this.filterContentPattern = Pattern.compile(filterContentPattern);
-        this.inputCharset = Charset.forName(inputCharset);
-        this.decodeErrorPolicy = Preconditions.checkNotNull(decodeErrorPolicy);
-        this.spoolingDirManager = new SpoolingDirManager(this.spoolDirectory, this.ignorePattern);
+    /**
+     * take the snapshot of the spool directory tree used by the first lookup
+     * @return num of files, -1 if subdirectories are not read and nothing is cached
+     */
+    public int snapshotDirectory() {
+        return spoolingDirManager.snapshot();
+    }
+
+    private TimestampExtractor createTimestampExtractor() {
+        if (timestampFormat == null || timestampFormat.isEmpty()) {
+            return null;
+        }
+        return new TimestampExtractor(timestampFormat, timestampTimeZone, timestampOffset,
+                timestampPattern, filterContentPattern);
+    }
+
+    /**
+     * change the content patterns of the running reader. the patterns are compiled here, so an
+     * invalid pattern fails the caller, and take effect before the next read
+     */
+    public void updateContentPatterns(String filterContentPattern, String ignoreContentPattern) {
+        Pattern[] patterns = {Pattern.compile(filterContentPattern), Pattern.compile(ignoreContentPattern)};
+        pendingContentPatterns.set(patterns);
+    }
+
+    private void applyContentPatterns() {
+        Pattern[] patterns = pendingContentPatterns.getAndSet(null);
+        if (patterns == null) {
+            return;
+        }
+        if (patterns[0].pattern().equals(filterContentPattern.pattern())
+                && patterns[1].pattern().equals(ignoreContentPattern.pattern())) {
+            return;
+        }
+        filterContentPattern = patterns[0];
+        ignoreContentPattern = patterns[1];
+        filterContentMatcher = filterContentPattern.matcher("");
+        ignoreContentMatcher = ignoreContentPattern.matcher("");
+        // 时间戳可能取自filterContentPattern的分组
+        timestampExtractor = createTimestampExtractor();
+        if (linePipeline != null) {
+            linePipeline.setContentRules(filterContentPattern, ignoreContentPattern, timestampExtractor);
+        }
+        logger.info("content patterns changed. filter pattern:" + filterContentPattern
+                + " ignore content pattern:" + ignoreContentPattern);
     }
 
     @Deprecated
@@ -123,7 +322,33 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
     public Optional<OffsetInfo> readEvents(int numEvents,
                                            final Optional<OffsetInfo> lastReadOffsetInfo,
                                            List<Event> events) throws IOException {
+        Object trace = tracer.beginReadBatch();
+        if (trace == null) {
+            return remember(readBatch(numEvents, lastReadOffsetInfo, events));
+        }
+        long bytes = bytesRead;
+        long lines = linesRead;
+        long filtered = filteredLines;
+        Optional<OffsetInfo> offsetInfo = readBatch(numEvents, lastReadOffsetInfo, events);
+        tracer.endReadBatch(trace, offsetInfo.isPresent() ? offsetInfo.get().getFileName() : null,
+                bytesRead - bytes, linesRead - lines, filteredLines - filtered, events == null ? 0 : events.size());
+        return remember(offsetInfo);
+    }
 
+    /**
+     * keep the returned offset and the read position for the lease, written once the offset is saved
+     */
+    private Optional<OffsetInfo> remember(Optional<OffsetInfo> offsetInfo) {
+        if (fileShards != null && offsetInfo.isPresent()) {
+            lastOffsetInfo = offsetInfo;
+            lastPosition = currentFile.isPresent() ? currentFile.get().getLineReader().getPosition() : 0;
+        }
+        return offsetInfo;
+    }
+
+    private Optional<OffsetInfo> readBatch(int numEvents,
+                                           final Optional<OffsetInfo> lastReadOffsetInfo,
+                                           List<Event> events) throws IOException {
         if (events == null) {
             logger.error("readEvents function: the eventList is null");
             return Optional.absent();
@@ -133,55 +358,60 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
             logger.info("Last read was never committed. will continue;");
             return Optional.absent();
         }
+        applyContentPatterns();
         String fileName = null;
         long offset = -1;
         long time = -1;
         int inode = -1;
+        FileFingerprint fingerprint = null;
         if (lastReadOffsetInfo.isPresent()) {
             fileName = lastReadOffsetInfo.get().getFileName();
             offset = lastReadOffsetInfo.get().getOffset();
             time = lastReadOffsetInfo.get().getModifiedTime();
             inode = lastReadOffsetInfo.get().getInode();
+            fingerprint = lastReadOffsetInfo.get().getFingerprint();
         }
 
         // 第一次启动flume，或者offset配置文件丢失，会进入该分支
         if (!lastReadOffsetInfo.isPresent()) {
             // 选择当前文件夹最新的文件
-            currentFile = spoolingDirManager.getNewestFile();
+            currentFile = withRecordFormat(spoolingDirManager.getNewestFile());
             if (!currentFile.isPresent()) {
                 logger.info("there is no file to read.");
                 return Optional.absent();
             }
             time = currentFile.get().getLastModified();
-            fileName = currentFile.get().getFile().getName();
-            offset = currentFile.get().resetBufferedReaderToEndOfFile();
+            fileName = spoolingDirManager.relativeName(currentFile.get().getFile());
             inode = spoolingDirManager.getFileInode(fileName);
+            offset = currentFile.get().resetReaderToEndOfFile(lineIndex(inode));
             logger.info("first time run.will get the newest file to read. file name:" + fileName
                 + ". modify time:" + time);
         }
         // flume重启（offset配置文件存在），或者重置currentFile（inode改变）会进入该分支
         if (!currentFile.isPresent()) {
-            // 首先会根据inode查找文件
-            // 对于日志文件，名称可能会改变，因此根据inode和modifiedTime查找
-            currentFile = spoolingDirManager.getFileByInode(inode);
+            // 首先会根据文件名、inode和内容指纹查找文件
+            // 对于日志文件，名称可能会改变，inode可能被新文件重用，因此根据inode、指纹和modifiedTime查找
+            currentFile = withRecordFormat(spoolingDirManager.getFileByIdentity(fileName, inode, fingerprint, time));
             if (currentFile.isPresent()) {
-                // 根据inode找到文件后，重置fileName和time
-                fileName = currentFile.get().getFile().getName();
+                // 找到文件后，重置fileName、inode（按指纹找到的副本inode不同）和time
+                fileName = spoolingDirManager.relativeName(currentFile.get().getFile());
+                inode = spoolingDirManager.getFileInode(currentFile.get().getFile());
                 time = currentFile.get().getLastModified();
                 // 重置reader的offset
-                currentFile.get().resetBufferedReader(offset);
+                currentFile.get().resetReader(offset, lineIndex(inode));
                 logger.info("get the file by inode success. fileName:" + fileName);
             } else {
                 // 如果根据inode未找到文件，则根据modifiedTime查找，
                 // 找到比该时间新(必须包含该时间,如果改文件为最新)的文件中最老的文件开始读取
-                currentFile = spoolingDirManager.getNextFile(time);
+                currentFile = withRecordFormat(spoolingDirManager.getNextFile(time));
                 if (currentFile.isPresent()) {
-                    String curFileName = currentFile.get().getFile().getName();
+                    String curFileName = spoolingDirManager.relativeName(currentFile.get().getFile());
                     logger.info("get a oldest file which modifiedTime later than " + time
                             + " file name:" + curFileName);
                     long curFileTime = currentFile.get().getLastModified();
                     // 为确保重启后找到的文件是否是原文件（原读取的文件inode改变的影响），根据文件名继续判断
-                    if (fileName.equals(curFileName)) {
+                    if (fileName.equals(curFileName)
+                            && (fingerprint == null || fingerprint.matches(currentFile.get().getFile()))) {
                         // 如果文件名相同，我们可以认为是同一个文件（存在不确定性）
                         logger.info("fileName:" + fileName + " ModifyTime:" + time
                                 + " matched. will read from file:" + curFileName);
@@ -191,12 +421,12 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
                         logger.info("fileName:" + fileName + "ModifyTime:" + time + "do not match. "
                                 + "will read from file:" + curFileName);
                     }
-                    // 重置Reader的offset
-                    currentFile.get().resetBufferedReader(offset);
                     // 再重置fileName，inode，time
                     fileName = curFileName;
                     time = curFileTime;
                     inode = spoolingDirManager.getFileInode(fileName);
+                    // 重置Reader的offset
+                    currentFile.get().resetReader(offset, lineIndex(inode));
                 } else {
                     logger.info("cannot find a file which modifiedTime later than " + time + "will continue.");
                 }
@@ -204,72 +434,100 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
         }
         if (currentFile.isPresent()) {
             // 根据inode检查文件是否改变（日志文件被mv后，同名文件inode会改变），inode改变后，重置并返回
-            String curFileName = currentFile.get().getFile().getName();
+            String curFileName = spoolingDirManager.relativeName(currentFile.get().getFile());
             int newInode = spoolingDirManager.getFileInode(curFileName);
             if (newInode != inode) {
                 logger.info("file :" + fileName + " inode has changed.will reset and continue.");
                 currentFile = Optional.absent();
                 return Optional.absent();
             }
+            fingerprint = spoolingDirManager.getFingerprint(currentFile.get().getFile(), inode);
 
-            BufferedReader reader = currentFile.get().getBufferedReader();
-            if (reader == null) {
-                logger.info("reader is null. will reset BufferedReader .offset:" + offset);
-                currentFile.get().resetBufferedReader(offset);
+            LineReader reader = currentFile.get().getLineReader();
+            if (fileShards != null) {
+                // 分片模式下先取得文件，其他source已读过的行从租约记录的offset继续
+                long leasedOffset = fileShards.acquire(inode, curFileName, reader.size());
+                if (leasedOffset < 0) {
+                    logger.info("file:" + curFileName + " is read by another source. will look for another file.");
+                    reader.close();
+                    currentFile = Optional.absent();
+                    return Optional.absent();
+                }
+                if (leasedOffset > offset) {
+                    logger.info("file:" + curFileName + " was read to offset " + leasedOffset
+                            + " by another source. continue from there, own offset:" + offset);
+                    currentFile.get().resetReader(leasedOffset, lineIndex(inode));
+                    offset = leasedOffset;
+                }
+            }
+            if (recordFormat == RecordFormat.LINE) {
+                reader.setMaxLineLength(maxLineLength, oversizeLinePolicy, inputCharset.equals(outputCharset));
             }
             // 如果inode未改变，判断该文件是否是文件夹中最新的文件
             newerFile = spoolingDirManager.getNewerFile(time);
             // 当前文件是最新的，或者是虽然不是最新的文件，但名字和查找的最新文件名相同
             // （实时日志文件 modifiedTime会一直改变，也会被判断有新文件，实际为同一个文件）
-            if (!newerFile.isPresent() || newerFile.get().getFile().getName().equals(curFileName)) {
+            String newerFileName = newerFile.isPresent()
+                    ? spoolingDirManager.relativeName(newerFile.get().getFile()) : null;
+            if (!newerFile.isPresent() || newerFileName.equals(curFileName)) {
                 if (newerFile.isPresent()) {
-                    logger.info("find a newer file. file name:" + newerFile.get().getFile().getName());
+                    logger.info("find a newer file. file name:" + newerFileName);
                 }
                 logger.info("current read file is the newest file.file name:" + curFileName);
-                String line;
-                while (numEvents-- > 0) {
-                    line = reader.readLine();
-                    if (line == null) {
-                        logger.info("arrive end of file:" + curFileName + " read offset:" + offset);
-                        break;
-                    }
-                    offset++;
-                    if (!filterContentPattern.matcher(line).matches()) {
-                        continue;
-                    }
-                    if (ignoreContentPattern.matcher(line).matches()) {
-                        continue;
+                if (currentFile.get().enterTailMode(tailBufferSize)) {
+                    logger.info("file:" + curFileName + " reached the live file. switch to tail mode.");
+                }
+                // 最新文件的最后一行可能还未写完，不读取不完整的行
+                lineIndex(inode);
+                offset = read(reader, false, maxLines(numEvents, 1), numEvents, events, offset);
+                if (endOfFile) {
+                    logger.info("arrive end of file:" + curFileName + " read offset:" + offset);
+                    Optional<FileInfo> orphan = findOrphan(inode);
+                    if (orphan.isPresent()) {
+                        // 最新文件已读到末尾，先接管其他source留下的旧文件，之后按租约的offset回到该文件
+                        fileShards.finish(inode, offset, reader.getPosition());
+                        reader.close();
+                        return switchTo(orphan);
                     }
-                    Event event = EventBuilder.withBody(line, outputCharset);
-                    events.add(event);
                 }
                 time = currentFile.get().getLastModified();
             } else { // 当前文件不是最新的文件
                 logger.info("current read file is not the newest file.");
-                String newFileName = newerFile.get().getFile().getName();
-                while (numEvents-- > 0) {
-                    String line = reader.readLine();
-                    if (line == null) {
-                        // 当前文件不是最新文件，而且已经全部读完，则关闭该文件的Reader，并切换成较新的文件继续读取
-                        currentFile.get().getBufferedReader().close();
-                        currentFile = newerFile;
-                        logger.info("current file has read finish. will close and read the next file:" + newFileName);
-                        // 重置新文件相关offset信息
-                        fileName = currentFile.get().getFile().getName();
-                        time = currentFile.get().getLastModified();
-                        inode = spoolingDirManager.getFileInode(fileName);
-                        offset = 0;
-                        return Optional.of(new OffsetInfo(fileName, inode, offset, time));
+                long position = reader.getPosition();
+                Optional<OffsetInfo> fastForwardOffset = fastForwardIfLagging(reader, time);
+                if (fastForwardOffset.isPresent()) {
+                    if (fileShards != null) {
+                        fileShards.finish(inode, offset, position);
+                    }
+                    return fastForwardOffset;
+                }
+                if (currentFile.get().enterCatchUpMode(catchUpBufferSize, catchUpMmap)) {
+                    logger.info("file:" + curFileName + " is behind. switch to catch-up mode. buffer size:"
+                            + catchUpBufferSize + " mmap:" + catchUpMmap);
+                }
+                lineIndex(inode);
+                // 追赶模式下每批扫描更多的行，但放入channel的event数仍不超过numEvents
+                offset = read(reader, true, maxLines(numEvents, catchUpBatchMultiplier), numEvents, events, offset);
+                if (endOfFile) {
+                    // 当前文件不是最新文件，而且已经全部读完，则关闭该文件的Reader，并切换成较新的文件继续读取
+                    if (fileShards != null) {
+                        fileShards.finish(inode, offset, reader.getPosition());
                     }
-                    offset++;
-                    if (!filterContentPattern.matcher(line).matches()) {
-                        continue;
+                    reader.close();
+                    RecordDeserializer deserializer = currentFile.get().getDeserializer();
+                    if (deserializer != null && deserializer.isCorrupt()) {
+                        // 损坏的文件保留在原处，不做完成处理
+                        logger.error("file:" + curFileName + " is corrupt after offset " + offset
+                                + ". leave it in place and read the next file");
+                    } else if (completedFileHandler != null) {
+                        completedFileHandler.fileFinished(currentFile.get().getFile(), inode);
                     }
-                    if (ignoreContentPattern.matcher(line).matches()) {
-                        continue;
+                    Optional<FileInfo> orphan = findOrphan(inode);
+                    if (orphan.isPresent()) {
+                        return switchTo(orphan);
                     }
-                    Event event = EventBuilder.withBody(line, outputCharset);
-                    events.add(event);
+                    logger.info("current file has read finish. will close and read the next file:" + newerFileName);
+                    return switchTo(newerFile);
                 }
                 time = currentFile.get().getLastModified();
             }
@@ -279,15 +537,577 @@ public class ReliableTailSourceEventReader implements ReliableEventReader {
             // only non-empty events need to commit
             committed = false;
         }
-        return Optional.of(new OffsetInfo(fileName, inode, offset, time));
+        return Optional.of(new OffsetInfo(fileName, inode, offset, time, fingerprint));
+    }
+
+    /**
+     * make file the current file, read from its start (or the offset of its lease)
+     * @return offset of the file
+     */
+    private Optional<OffsetInfo> switchTo(Optional<FileInfo> file) {
+        currentFile = withRecordFormat(file);
+        // 重置新文件相关offset信息
+        String fileName = spoolingDirManager.relativeName(currentFile.get().getFile());
+        long time = currentFile.get().getLastModified();
+        int inode = spoolingDirManager.getFileInode(fileName);
+        return Optional.of(new OffsetInfo(fileName, inode, 0, time,
+                spoolingDirManager.getFingerprint(currentFile.get().getFile(), inode)));
+    }
+
+    /**
+     * a file older than the current one whose lease a stopped source left before its end.
+     * files newer than the current one are found by their modified time
+     */
+    private Optional<FileInfo> findOrphan(int currentInode) {
+        if (fileShards == null) {
+            return Optional.absent();
+        }
+        for (FileShards.Orphan orphan : fileShards.orphans()) {
+            if (orphan.getInode() == currentInode) {
+                continue;
+            }
+            Optional<FileInfo> file = spoolingDirManager.getFileByNameOrInode(orphan.getFileName(), orphan.getInode());
+            if (file.isPresent() && file.get().getFile().length() > orphan.getPosition()) {
+                logger.info("file:" + orphan.getFileName() + " inode:" + orphan.getInode() + " was left by its source at position "
+                        + orphan.getPosition() + " before its end. take it over");
+                return file;
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * open the file for the configured record format
+     */
+    private Optional<FileInfo> withRecordFormat(Optional<FileInfo> file) {
+        if (file.isPresent() && recordFormat != RecordFormat.LINE) {
+            file.get().useRecordFormat(recordFormat, maxRecordLength);
+        }
+        return file;
+    }
+
+    /**
+     * read the next lines or records of the current file
+     * @return offset after the read
+     */
+    private long read(LineReader reader, boolean acceptPartial, int maxLines, int maxEvents,
+                      List<Event> events, long offset) throws IOException {
+        RecordDeserializer deserializer = currentFile.get().getDeserializer();
+        if (deserializer == null && linePipeline != null) {
+            return offset + readLinesParallel(reader, acceptPartial, maxLines, maxEvents, events, offset);
+        }
+        if (deserializer == null) {
+            return offset + readLines(reader, acceptPartial, maxLines, maxEvents, events, offset);
+        }
+        return readRecords(deserializer, acceptPartial, reader, maxEvents, events);
+    }
+
+    /**
+     * read complete records of the current file. content filters, timestamps, packing and
+     * routes apply to lines only
+     * @return position after the last record read
+     */
+    private long readRecords(RecordDeserializer deserializer, boolean acceptPartial, LineReader reader,
+                             int maxEvents, List<Event> events) throws IOException {
+        endOfFile = false;
+        while (events.size() < maxEvents) {
+            long start = reader.getPosition();
+            Event event = deserializer.readEvent(acceptPartial);
+            long bytes = Math.max(0, reader.getPosition() - start);
+            bytesRead += bytes;
+            throttle(bytes);
+            if (event == null) {
+                endOfFile = true;
+                break;
+            }
+            linesRead++;
+            events.add(event);
+        }
+        return deserializer.getPosition();
+    }
+
+    /**
+     * max lines to scan for numEvents events. in pack mode one event holds up to packLines lines
+     */
+    private int maxLines(int numEvents, int multiplier) {
+        long packLines = linePacker == null ? 1 : linePacker.getMaxLines();
+        return (int) Math.min(Integer.MAX_VALUE, (long) numEvents * multiplier * packLines);
+    }
+
+    /**
+     * read lines of the current file, filter them and put the events in events
+     * @param reader line reader of the current file
+     * @param acceptPartial whether the last line without line terminator is read
+     * @param maxLines max lines (or chunks of oversized lines) to read
+     * @param maxEvents max events to put in events
+     * @param events Event list to store read values
+     * @param firstLineOffset offset of the first line to read, used for the pack headers
+     * @return num of complete lines read. endOfFile is set if reading stopped at the end of file.
+     *         the chunks of a split line count as one line when its last chunk is read, so the
+     *         offset never points into the middle of a line
+     * @throws IOException
+     */
+    private long readLines(LineReader reader, boolean acceptPartial, int maxLines, int maxEvents,
+                           List<Event> events, long firstLineOffset) throws IOException {
+        endOfFile = false;
+        long lines = 0;
+        int records = 0;
+        long now = System.currentTimeMillis();
+        if (duplicateSuppressor != null) {
+            duplicateSuppressor.expire(now);
+            duplicateSuppressor.drainSummaries(events, maxEvents);
+        }
+        while (records < maxLines && events.size() < maxEvents) {
+            long start = reader.getPosition();
+            boolean insideLine = reader.isInsideLine();
+            LineReader.Result result = reader.readLine(lineBuffer, acceptPartial);
+            if (result == LineReader.Result.EOF) {
+                endOfFile = true;
+                break;
+            }
+            boolean firstChunk = result == LineReader.Result.CHUNK && !splittingLine;
+            if (firstChunk && linePacker != null && !linePacker.isEmpty()) {
+                // 超长行的各段单独成包，先结束当前包
+                events.add(linePacker.flush(timestampHeader, routeHeader));
+                if (events.size() >= maxEvents) {
+                    // 没有位置放分段的包，退回该段下次再读
+                    reader.seek(start, insideLine);
+                    break;
+                }
+            }
+            records++;
+            long lineOffset = firstLineOffset + lines;
+            bytesRead += reader.getPosition() - start;
+            throttle(reader.getPosition() - start);
+            switch (result) {
+                case CHUNK:
+                    if (!splittingLine) {
+                        splittingLine = true;
+                        countOversizeLine();
+                    }
+                    break;
+                case LAST_CHUNK:
+                    splittingLine = false;
+                    lines++;
+                    linesRead++;
+                    break;
+                case TRUNCATED:
+                    countOversizeLine();
+                    lines++;
+                    linesRead++;
+                    break;
+                case SKIPPED:
+                    countOversizeLine();
+                    lines++;
+                    linesRead++;
+                    break;
+                default:
+                    lines++;
+                    linesRead++;
+                    break;
+            }
+            if (lineIndex != null && result != LineReader.Result.CHUNK) {
+                lineIndex.record(firstLineOffset + lines, reader.getPosition());
+            }
+            if (result == LineReader.Result.SKIPPED) {
+                continue;
+            }
+            if (result == LineReader.Result.LAST_CHUNK && lineBuffer.length() == 0) {
+                continue;
+            }
+            CharBuffer line = lineDecoder.decode(lineBuffer);
+            if (!filterContentMatcher.reset(line).matches()) {
+                filteredLines++;
+                continue;
+            }
+            if (ignoreContentMatcher.reset(line).matches()) {
+                filteredLines++;
+                continue;
+            }
+            String route = routeRules == null ? null : routeRules.route(line);
+            if (linePacker != null && result == LineReader.Result.LINE
+                    && !linePacker.isEmpty() && !linePacker.hasRoute(route)) {
+                // 一个包只有一个路由，路由改变时结束当前包
+                events.add(linePacker.flush(timestampHeader, routeHeader));
+                if (events.size() >= maxEvents) {
+                    // 没有位置放新的包，退回该行下次再读
+                    bytesRead -= reader.getPosition() - start;
+                    reader.seek(start, insideLine);
+                    lines--;
+                    linesRead--;
+                    break;
+                }
+            }
+            if (duplicateSuppressor != null && duplicateSuppressor.isDuplicate(line, now)) {
+                if (sourceCounter != null) {
+                    sourceCounter.incrementDuplicateSuppressedCount();
+                }
+                continue;
+            }
+            long timestamp = -1;
+            // 打包模式下只取包内第一行的时间戳，重复行汇总需要每行的时间戳
+            if (timestampExtractor != null
+                    && (linePacker == null || linePacker.isEmpty() || duplicateSuppressor != null)) {
+                timestamp = timestampExtractor.extract(line, filterContentMatcher);
+            }
+            if (linePacker != null) {
+                boolean piece = result == LineReader.Result.CHUNK || result == LineReader.Result.LAST_CHUNK;
+                packLine(line, lineOffset, timestamp, route, piece, firstChunk, maxEvents, events);
+                continue;
+            }
+            Event event;
+            if (rawBody && lineDecoder.isClean()) {
+                event = batchBuilder.build(lineBuffer);
+            } else {
+                event = batchBuilder.build(line);
+            }
+            if (duplicateSuppressor != null) {
+                duplicateSuppressor.sample(event.getBody(), 0, event.getBody().length, timestamp, route);
+                // 被挤出的重复行汇总
+                duplicateSuppressor.drainSummaries(events, maxEvents - 1);
+            }
+            if (timestamp >= 0) {
+                event.getHeaders().put(timestampHeader, String.valueOf(timestamp));
+            }
+            if (route != null) {
+                event.getHeaders().put(routeHeader, route);
+            }
+            events.add(event);
+        }
+        if (linePacker != null && !linePacker.isEmpty()) {
+            // 包不跨越两次读取，保证offset落在包的边界上
+            events.add(linePacker.flush(timestampHeader, routeHeader));
+        }
+        return lines;
+    }
+
+    /**
+     * same as {@link #readLines} with decode, content filters, routes, timestamps and event
+     * bodies on the line pipeline. the lines are read and cut into chunks on this thread, the
+     * chunks are taken back in file order and duplicate suppression and packing run here.
+     * the chunks are taken back while reading, and reading stops once events are full, so at
+     * most one chunk per worker is read ahead. the lines after the first chunk which failed, or
+     * which did not fit into events, are read again by the next batch, so the offset only counts
+     * contiguous lines
+     */
+    private long readLinesParallel(LineReader reader, boolean acceptPartial, int maxLines, int maxEvents,
+                                   List<Event> events, long firstLineOffset) throws IOException {
+        endOfFile = false;
+        long now = System.currentTimeMillis();
+        if (duplicateSuppressor != null) {
+            duplicateSuppressor.expire(now);
+            duplicateSuppressor.drainSummaries(events, maxEvents);
+        }
+        int chunkLines = linePipeline.chunkLines(maxLines);
+        // 每个worker最多一个在处理的块，另加一个已完成待取回的块，事件已满时不再多读
+        int maxPending = linePipeline.getThreads() + 1;
+        Deque<LinePipeline.Chunk> chunks = new ArrayDeque<LinePipeline.Chunk>();
+        Deque<Future<LinePipeline.Chunk>> results = new ArrayDeque<Future<LinePipeline.Chunk>>();
+        LinePipeline.Chunk chunk = null;
+        long lines = 0;
+        long consumed = 0;
+        long stopPosition = -1;
+        boolean stopInsideLine = false;
+        Throwable failure = null;
+        boolean reading = true;
+        while (stopPosition < 0 && (reading || !results.isEmpty())) {
+            if (reading) {
+                if (lines < maxLines && events.size() < maxEvents) {
+                    long start = reader.getPosition();
+                    boolean insideLine = reader.isInsideLine();
+                    LineReader.Result result = reader.readLine(lineBuffer, acceptPartial);
+                    if (result == LineReader.Result.EOF) {
+                        endOfFile = true;
+                        reading = false;
+                    } else {
+                        lines++;
+                        linesRead++;
+                        bytesRead += reader.getPosition() - start;
+                        throttle(reader.getPosition() - start);
+                        if (lineIndex != null) {
+                            lineIndex.record(firstLineOffset + lines, reader.getPosition());
+                        }
+                        if (chunk == null) {
+                            chunk = linePipeline.newChunk(start, chunkLines);
+                        }
+                        chunk.add(insideLine, result, lineBuffer, reader.getPosition());
+                    }
+                } else {
+                    reading = false;
+                }
+                if (chunk != null && (chunk.isFull() || !reading)) {
+                    chunks.addLast(chunk);
+                    results.addLast(linePipeline.submit(chunk));
+                    chunk = null;
+                }
+            }
+            if (results.isEmpty()
+                    || (reading && results.size() < maxPending && !results.peekFirst().isDone())) {
+                continue;
+            }
+            // 按文件顺序取回处理结果
+            LinePipeline.Chunk submitted = chunks.removeFirst();
+            LinePipeline.Chunk processed;
+            try {
+                processed = results.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopPosition = submitted.startOf(0);
+                stopInsideLine = submitted.isInsideLine(0);
+                break;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+                logger.error("process lines from position " + submitted.startOf(0) + " failed", failure);
+                stopPosition = submitted.startOf(0);
+                stopInsideLine = submitted.isInsideLine(0);
+                break;
+            }
+            for (int i = 0; i < processed.size(); i++) {
+                if (events.size() >= maxEvents
+                        || !sequence(processed, i, firstLineOffset + consumed, now, maxEvents, events)) {
+                    stopPosition = processed.startOf(i);
+                    stopInsideLine = processed.isInsideLine(i);
+                    break;
+                }
+                consumed++;
+            }
+        }
+        long readPosition = reader.getPosition();
+        if (stopPosition >= 0) {
+            // 退回未处理的行，下次再读
+            for (Future<LinePipeline.Chunk> result : results) {
+                result.cancel(false);
+            }
+            bytesRead -= readPosition - stopPosition;
+            linesRead -= lines - consumed;
+            reader.seek(stopPosition, stopInsideLine);
+            endOfFile = false;
+        }
+        if (linePacker != null && !linePacker.isEmpty()) {
+            // 包不跨越两次读取，保证offset落在包的边界上
+            events.add(linePacker.flush(timestampHeader, routeHeader));
+        }
+        if (consumed == 0 && failure != null) {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new IOException("process lines failed", failure);
+        }
+        if (consumed == 0 && Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("interrupted while waiting for processed lines");
+        }
+        return consumed;
+    }
+
+    /**
+     * run the stateful stages on line i of a processed chunk
+     * @return false if there is no room for the line in events, it is read again by the next batch
+     */
+    private boolean sequence(LinePipeline.Chunk chunk, int i, long lineOffset, long now, int maxEvents,
+                             List<Event> events) {
+        LineReader.Result result = chunk.getResult(i);
+        byte state = chunk.getState(i);
+        if (state == LinePipeline.FILTERED) {
+            filteredLines++;
+        }
+        String route = chunk.getRoute(i);
+        if (state == LinePipeline.KEPT && linePacker != null && result == LineReader.Result.LINE
+                && !linePacker.isEmpty() && !linePacker.hasRoute(route)) {
+            // 一个包只有一个路由，路由改变时结束当前包
+            events.add(linePacker.flush(timestampHeader, routeHeader));
+            if (events.size() >= maxEvents) {
+                return false;
+            }
+        }
+        if (result == LineReader.Result.TRUNCATED || result == LineReader.Result.SKIPPED) {
+            countOversizeLine();
+        }
+        if (state != LinePipeline.KEPT) {
+            return true;
+        }
+        if (duplicateSuppressor != null && duplicateSuppressor.isDuplicate(chunk.getHash(i), now)) {
+            if (sourceCounter != null) {
+                sourceCounter.incrementDuplicateSuppressedCount();
+            }
+            return true;
+        }
+        if (linePacker != null) {
+            byte[] body = chunk.getBody(i);
+            addToPack(body, body.length, lineOffset, chunk.getTimestamp(i), route, false, false, maxEvents, events);
+            return true;
+        }
+        Event event = chunk.getEvent(i);
+        if (duplicateSuppressor != null) {
+            duplicateSuppressor.sample(event.getBody(), 0, event.getBody().length, chunk.getTimestamp(i), route);
+            // 被挤出的重复行汇总
+            duplicateSuppressor.drainSummaries(events, maxEvents - 1);
+        }
+        events.add(event);
+        return true;
+    }
+
+    /**
+     * append the line to the open pack, and put the pack in events when it is full
+     * @param piece whether the line is a piece of a split line, which is packed alone
+     * @param firstPiece whether it is the first piece of its line
+     */
+    private void packLine(CharBuffer line, long lineOffset, long timestamp, String route, boolean piece,
+                          boolean firstPiece, int maxEvents, List<Event> events) {
+        byte[] bytes;
+        int length;
+        if (rawBody && lineDecoder.isClean()) {
+            bytes = lineBuffer.array();
+            length = lineBuffer.length();
+        } else {
+            ByteBuffer encoded = batchBuilder.encodeToBuffer(line);
+            bytes = encoded.array();
+            length = encoded.position();
+        }
+        addToPack(bytes, length, lineOffset, timestamp, route, piece, firstPiece, maxEvents, events);
+    }
+
+    /**
+     * @param timestamp timestamp of the line, only the one of the first line in a pack is used
+     */
+    private void addToPack(byte[] bytes, int length, long lineOffset, long timestamp, String route, boolean piece,
+                           boolean firstPiece, int maxEvents, List<Event> events) {
+        if (piece) {
+            linePacker.addPiece(bytes, 0, length, lineOffset, timestamp, route, firstPiece);
+        } else {
+            // 打包模式下只取包内第一行的时间戳
+            linePacker.add(bytes, 0, length, lineOffset, linePacker.isEmpty() ? timestamp : -1, route);
+        }
+        if (duplicateSuppressor != null) {
+            duplicateSuppressor.sample(bytes, 0, length, timestamp, route);
+            // 留一个位置给未满的包
+            duplicateSuppressor.drainSummaries(events, maxEvents - 1);
+        }
+        if (linePacker.isFull()) {
+            events.add(linePacker.flush(timestampHeader, routeHeader));
+        }
+    }
+
+    /**
+     * skip to near the end of the newest file if the reader is too far behind.
+     * the skipped data is logged and counted in the metrics
+     * @param reader line reader of the current file, which is not the newest file
+     * @param time modified time of the current file
+     * @return offset in the newest file if skipped
+     */
+    private Optional<OffsetInfo> fastForwardIfLagging(LineReader reader, long time) throws IOException {
+        if (maxLagBytes <= 0 && maxLagMillis <= 0) {
+            return Optional.absent();
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastLagCheckTime < LAG_CHECK_INTERVAL_MS) {
+            return Optional.absent();
+        }
+        lastLagCheckTime = now;
+        long remainingBytes = Math.max(0, reader.size() - reader.getPosition());
+        long newerBytes = spoolingDirManager.getNewerFilesLength(time);
+        long lagBytes = remainingBytes + newerBytes;
+        long lagMillis = now - time;
+        boolean lagging = (maxLagBytes > 0 && lagBytes > maxLagBytes) || (maxLagMillis > 0 && lagMillis > maxLagMillis);
+        if (!lagging) {
+            return Optional.absent();
+        }
+        Optional<FileInfo> newestFile = spoolingDirManager.getNewestFile();
+        if (!newestFile.isPresent()) {
+            return Optional.absent();
+        }
+        String oldFileName = spoolingDirManager.relativeName(currentFile.get().getFile());
+        reader.close();
+        currentFile = withRecordFormat(newestFile);
+        currentFile.get().enterCatchUpMode(catchUpBufferSize, catchUpMmap);
+        String fileName = spoolingDirManager.relativeName(currentFile.get().getFile());
+        int inode = spoolingDirManager.getFileInode(fileName);
+        long newOffset = currentFile.get().resetReaderNearEnd(fastForwardTailBytes, lineIndex(inode));
+        LineReader newReader = currentFile.get().getLineReader();
+        long skippedBytes = Math.max(0, lagBytes - (newReader.size() - newReader.getPosition()));
+        // 最新文件中跳过的行数是准确的，其他文件按平均行长估算
+        long newestSkippedBytes = newReader.getPosition();
+        long averageLineLength = linesRead > 0 ? Math.max(1, bytesRead / linesRead) : 100;
+        long skippedLines = newOffset + Math.max(0, skippedBytes - newestSkippedBytes) / averageLineLength;
+        long newTime = currentFile.get().getLastModified();
+        logger.warn("reader is lagging. lag bytes:" + lagBytes + " lag millis:" + lagMillis
+                + ". fast forward from file:" + oldFileName + " to file:" + fileName + " offset:" + newOffset
+                + ". skipped bytes:" + skippedBytes + " estimated skipped lines:" + skippedLines);
+        if (sourceCounter != null) {
+            sourceCounter.fastForwarded(skippedBytes, skippedLines);
+        }
+        return Optional.of(new OffsetInfo(fileName, inode, newOffset, newTime,
+                spoolingDirManager.getFingerprint(currentFile.get().getFile(), inode)));
+    }
+
+    private void countOversizeLine() {
+        if (sourceCounter != null) {
+            sourceCounter.incrementOversizeLineCount();
+        }
+    }
+
+    /**
+     * wait for the read throttle if rate limits are configured.
+     * the line has been read already, so an interrupt only stops waiting and is passed on
+     */
+    private void throttle(long bytes) {
+        if (!readThrottle.isEnabled()) {
+            return;
+        }
+        try {
+            readThrottle.acquire(currentFile.get().getFile(), bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the offset returned by the last readEvents has been saved
+     */
+    public void offsetSaved() {
+        if (completedFileHandler != null) {
+            completedFileHandler.offsetSaved();
+        }
+        if (fileShards != null) {
+            if (lastOffsetInfo.isPresent()) {
+                OffsetInfo saved = lastOffsetInfo.get();
+                fileShards.saved(saved.getInode(), saved.getFileName(), saved.getOffset(), lastPosition);
+            }
+            fileShards.offsetSaved();
+        }
+        if (lineIndex != null && lineIndex.isDirty() && lineIndexFile.getParentFile().isDirectory()) {
+            try {
+                lineIndex.save(lineIndexFile);
+            } catch (IOException e) {
+                logger.warn("save line index exception:" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * the line index switched to the file with inode, null if disabled
+     */
+    private LineIndex lineIndex(int inode) {
+        if (lineIndex != null) {
+            lineIndex.use(inode);
+        }
+        return lineIndex;
     }
 
     @Override
     public void close() throws IOException {
         if (currentFile.isPresent()) {
-            currentFile.get().getBufferedReader().close();
+            currentFile.get().getLineReader().close();
             currentFile = Optional.absent();
         }
+        if (completedFileHandler != null) {
+            completedFileHandler.close();
+        }
+        if (fileShards != null) {
+            fileShards.close();
+        }
+        if (linePipeline != null) {
+            linePipeline.close();
+        }
     }
 
     /** Commit the last lines which were read. */
@@ -4,6 +4,9 @@ import org.apache.flume.serialization.DecodeErrorPolicy;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -11,21 +14,112 @@ import java.util.Locale;
  */
 public class ReliableTailSourceEventReaderBuilder {
     /**
-     * Special builder class for ReliableTailSourceEventReader
+     * Special builder class for ReliableTailSourceEventReader.
+     * the settings are read by the reader constructor
      */
-    private File spoolDirectory;
-    private String offsetDirectory;
-    private String ignorePattern =
+    File spoolDirectory;
+    String offsetDirectory;
+    String ignorePattern =
             ReliableTailSourceConfigurationConstants.DEFAULT_IGNORE_PAT;
-    private String inputCharset =
+    String inputCharset =
             ReliableTailSourceConfigurationConstants.DEFAULT_INPUT_CHARSET;
-    private DecodeErrorPolicy decodeErrorPolicy = DecodeErrorPolicy.valueOf(
+    DecodeErrorPolicy decodeErrorPolicy = DecodeErrorPolicy.valueOf(
             ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_ERROR_POLICY
                     .toUpperCase(Locale.ENGLISH));
-    private String filterContentPattern =
+    String filterContentPattern =
             ReliableTailSourceConfigurationConstants.DEFAULT_FILTER_CONTENT_PAT;
-    private String ignoreContentPattern =
+    String ignoreContentPattern =
             ReliableTailSourceConfigurationConstants.DEFAULT_IGNORE_CONTENT_PAT;
+    long maxBytesPerSecond =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_BYTES_PER_SECOND;
+    long maxEventsPerSecond =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_EVENTS_PER_SECOND;
+    long fileMaxBytesPerSecond =
+            ReliableTailSourceConfigurationConstants.DEFAULT_FILE_MAX_BYTES_PER_SECOND;
+    long fileMaxEventsPerSecond =
+            ReliableTailSourceConfigurationConstants.DEFAULT_FILE_MAX_EVENTS_PER_SECOND;
+    int tailBufferSize =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TAIL_BUFFER_SIZE;
+    int catchUpBufferSize =
+            ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_BUFFER_SIZE;
+    boolean catchUpMmap =
+            ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_MMAP;
+    int catchUpBatchMultiplier =
+            ReliableTailSourceConfigurationConstants.DEFAULT_CATCH_UP_BATCH_MULTIPLIER;
+    int maxLineLength =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH;
+    OversizeLinePolicy oversizeLinePolicy = OversizeLinePolicy.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_OVERSIZE_LINE_POLICY);
+    String timestampFormat =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_FORMAT;
+    String timestampTimeZone =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_TIME_ZONE;
+    int timestampOffset =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_OFFSET;
+    String timestampPattern =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_PATTERN;
+    String timestampHeader =
+            ReliableTailSourceConfigurationConstants.DEFAULT_TIMESTAMP_HEADER;
+    DuplicatePolicy duplicatePolicy = DuplicatePolicy.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_POLICY);
+    long duplicateWindowMillis =
+            ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_WINDOW_MILLIS;
+    long duplicateWindowLines =
+            ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_WINDOW_LINES;
+    int duplicateSlots =
+            ReliableTailSourceConfigurationConstants.DEFAULT_DUPLICATE_SLOTS;
+    CompletionPolicy completionPolicy = CompletionPolicy.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETION_POLICY);
+    String completedSuffix =
+            ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETED_SUFFIX;
+    String archiveDirectory = null;
+    long completionGraceMillis =
+            ReliableTailSourceConfigurationConstants.DEFAULT_COMPLETION_GRACE_MILLIS;
+    long maxLagBytes =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LAG_BYTES;
+    long maxLagMillis =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_LAG_MILLIS;
+    long fastForwardTailBytes =
+            ReliableTailSourceConfigurationConstants.DEFAULT_FAST_FORWARD_TAIL_BYTES;
+    PackFormat packFormat = PackFormat.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_PACK_FORMAT);
+    int packLines =
+            ReliableTailSourceConfigurationConstants.DEFAULT_PACK_LINES;
+    int packBytes =
+            ReliableTailSourceConfigurationConstants.DEFAULT_PACK_BYTES;
+    int lineIndexInterval =
+            ReliableTailSourceConfigurationConstants.DEFAULT_LINE_INDEX_INTERVAL;
+    int recursiveDepth =
+            ReliableTailSourceConfigurationConstants.DEFAULT_RECURSIVE_DEPTH;
+    String pathPattern =
+            ReliableTailSourceConfigurationConstants.DEFAULT_PATH_PATTERN;
+    List<String> routePatterns = new ArrayList<String>();
+    List<String> routeValues = new ArrayList<String>();
+    String routeDefault =
+            ReliableTailSourceConfigurationConstants.DEFAULT_ROUTE_DEFAULT;
+    String routeHeader =
+            ReliableTailSourceConfigurationConstants.DEFAULT_ROUTE_HEADER;
+    ShardMode shardMode = ShardMode.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_MODE);
+    int shardCount =
+            ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_COUNT;
+    int shardIndex =
+            ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_INDEX;
+    String shardLeaseDirectory = null;
+    long shardProbeMillis =
+            ReliableTailSourceConfigurationConstants.DEFAULT_SHARD_PROBE_MILLIS;
+    RecordFormat recordFormat = RecordFormat.valueOf(
+            ReliableTailSourceConfigurationConstants.DEFAULT_RECORD_FORMAT);
+    int maxRecordLength =
+            ReliableTailSourceConfigurationConstants.DEFAULT_MAX_RECORD_LENGTH;
+    int fingerprintBytes =
+            ReliableTailSourceConfigurationConstants.DEFAULT_FINGERPRINT_BYTES;
+    int decodeThreads =
+            ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_THREADS;
+    int decodeChunkLines =
+            ReliableTailSourceConfigurationConstants.DEFAULT_DECODE_CHUNK_LINES;
+    Tracer tracer = Tracer.NOOP;
+    ReliableTailSourceCounter sourceCounter = null;
 
     public ReliableTailSourceEventReaderBuilder spoolDirectory(File directory) {
         this.spoolDirectory = directory;
@@ -62,13 +156,283 @@ public class ReliableTailSourceEventReaderBuilder {
         return this;
     }
 
+    public ReliableTailSourceEventReaderBuilder maxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder maxEventsPerSecond(long maxEventsPerSecond) {
+        this.maxEventsPerSecond = maxEventsPerSecond;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder fileMaxBytesPerSecond(long fileMaxBytesPerSecond) {
+        this.fileMaxBytesPerSecond = fileMaxBytesPerSecond;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder fileMaxEventsPerSecond(long fileMaxEventsPerSecond) {
+        this.fileMaxEventsPerSecond = fileMaxEventsPerSecond;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder tailBufferSize(int tailBufferSize) {
+        this.tailBufferSize = tailBufferSize;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder catchUpBufferSize(int catchUpBufferSize) {
+        this.catchUpBufferSize = catchUpBufferSize;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder catchUpMmap(boolean catchUpMmap) {
+        this.catchUpMmap = catchUpMmap;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder catchUpBatchMultiplier(int catchUpBatchMultiplier) {
+        this.catchUpBatchMultiplier = catchUpBatchMultiplier;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder maxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder oversizeLinePolicy(OversizeLinePolicy oversizeLinePolicy) {
+        this.oversizeLinePolicy = oversizeLinePolicy;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder timestampFormat(String timestampFormat) {
+        this.timestampFormat = timestampFormat;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder timestampTimeZone(String timestampTimeZone) {
+        this.timestampTimeZone = timestampTimeZone;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder timestampOffset(int timestampOffset) {
+        this.timestampOffset = timestampOffset;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder timestampPattern(String timestampPattern) {
+        this.timestampPattern = timestampPattern;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder timestampHeader(String timestampHeader) {
+        this.timestampHeader = timestampHeader;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder duplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.duplicatePolicy = duplicatePolicy;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder duplicateWindowMillis(long duplicateWindowMillis) {
+        this.duplicateWindowMillis = duplicateWindowMillis;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder duplicateWindowLines(long duplicateWindowLines) {
+        this.duplicateWindowLines = duplicateWindowLines;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder duplicateSlots(int duplicateSlots) {
+        this.duplicateSlots = duplicateSlots;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder completionPolicy(CompletionPolicy completionPolicy) {
+        this.completionPolicy = completionPolicy;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder completedSuffix(String completedSuffix) {
+        this.completedSuffix = completedSuffix;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder archiveDirectory(String archiveDirectory) {
+        this.archiveDirectory = archiveDirectory;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder completionGraceMillis(long completionGraceMillis) {
+        this.completionGraceMillis = completionGraceMillis;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder maxLagBytes(long maxLagBytes) {
+        this.maxLagBytes = maxLagBytes;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder maxLagMillis(long maxLagMillis) {
+        this.maxLagMillis = maxLagMillis;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder fastForwardTailBytes(long fastForwardTailBytes) {
+        this.fastForwardTailBytes = fastForwardTailBytes;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder packFormat(PackFormat packFormat) {
+        this.packFormat = packFormat;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder packLines(int packLines) {
+        this.packLines = packLines;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder packBytes(int packBytes) {
+        this.packBytes = packBytes;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder lineIndexInterval(int lineIndexInterval) {
+        this.lineIndexInterval = lineIndexInterval;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder recursiveDepth(int recursiveDepth) {
+        this.recursiveDepth = recursiveDepth;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder pathPattern(String pathPattern) {
+        this.pathPattern = pathPattern;
+        return this;
+    }
+
+    /**
+     * add a routing rule, rules are evaluated in the order they were added
+     */
+    public ReliableTailSourceEventReaderBuilder routeRule(String pattern, String value) {
+        this.routePatterns.add(pattern);
+        this.routeValues.add(value);
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder routeDefault(String routeDefault) {
+        this.routeDefault = routeDefault;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder routeHeader(String routeHeader) {
+        this.routeHeader = routeHeader;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder shardMode(ShardMode shardMode) {
+        this.shardMode = shardMode;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder shardCount(int shardCount) {
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder shardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder shardLeaseDirectory(String shardLeaseDirectory) {
+        this.shardLeaseDirectory = shardLeaseDirectory;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder shardProbeMillis(long shardProbeMillis) {
+        this.shardProbeMillis = shardProbeMillis;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder recordFormat(RecordFormat recordFormat) {
+        this.recordFormat = recordFormat;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder maxRecordLength(int maxRecordLength) {
+        this.maxRecordLength = maxRecordLength;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder fingerprintBytes(int fingerprintBytes) {
+        this.fingerprintBytes = fingerprintBytes;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder decodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder decodeChunkLines(int decodeChunkLines) {
+        this.decodeChunkLines = decodeChunkLines;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder tracer(Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public ReliableTailSourceEventReaderBuilder sourceCounter(ReliableTailSourceCounter sourceCounter) {
+        this.sourceCounter = sourceCounter;
+        return this;
+    }
+
     public ReliableTailSourceEventReader build() throws IOException {
-        return new ReliableTailSourceEventReader(spoolDirectory,
-                offsetDirectory,
-                ignorePattern,
-                ignoreContentPattern,
-                filterContentPattern,
-                inputCharset,
-                decodeErrorPolicy);
+        return new ReliableTailSourceEventReader(this);
+    }
+
+    ReadThrottle createReadThrottle() {
+        return new ReadThrottle(maxBytesPerSecond, maxEventsPerSecond,
+                fileMaxBytesPerSecond, fileMaxEventsPerSecond, sourceCounter);
+    }
+
+    /**
+     * @return null if duplicates are not suppressed
+     */
+    DuplicateSuppressor createDuplicateSuppressor() {
+        return duplicatePolicy == DuplicatePolicy.NONE ? null : new DuplicateSuppressor(duplicatePolicy,
+                duplicateWindowMillis, duplicateWindowLines, duplicateSlots, timestampHeader, routeHeader);
+    }
+
+    /**
+     * @return null if lines are not packed
+     */
+    LinePacker createLinePacker() {
+        return packFormat == PackFormat.NONE ? null : new LinePacker(packFormat, packLines, packBytes);
+    }
+
+    /**
+     * @return null if there are no routing rules
+     */
+    RouteRules createRouteRules() {
+        return routePatterns.isEmpty() && (routeDefault == null || routeDefault.isEmpty())
+                ? null : new RouteRules(routePatterns, routeValues, routeDefault);
+    }
+
+    /**
+     * @return null if files are not sharded
+     */
+    FileShards createFileShards() throws IOException {
+        return shardMode == ShardMode.NONE ? null : new FileShards(shardMode, shardCount, shardIndex,
+                shardLeaseDirectory, shardProbeMillis,
+                ManagementFactory.getRuntimeMXBean().getName() + ":" + offsetDirectory);
     }
 }
@@ -0,0 +1,66 @@
+package flume.source.plugin;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered content rules which map a line to the value of a routing header, so multiplexing
+ * channel selectors can route on it without an interceptor matching every event again.
+ * The rules are evaluated by the reader on the already decoded line, right after the
+ * content filters. The first rule whose pattern matches the whole line wins, lines matching
+ * no rule get the default value.
+ * Not thread safe, one instance per reader.
+ */
+public class RouteRules {
+    private final Matcher[] matchers;
+    private final String[] values;
+    private final String defaultValue;
+
+    /**
+     * @param patterns rule patterns in evaluation order
+     * @param values header value of each rule
+     * @param defaultValue header value of lines matching no rule, null for no header
+     */
+    public RouteRules(List<String> patterns, List<String> values, String defaultValue) {
+        if (patterns.size() != values.size()) {
+            throw new IllegalArgumentException("every route rule needs a pattern and a value");
+        }
+        this.matchers = new Matcher[patterns.size()];
+        this.values = new String[values.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = Pattern.compile(patterns.get(i)).matcher("");
+            this.values[i] = values.get(i);
+        }
+        this.defaultValue = defaultValue == null || defaultValue.isEmpty() ? null : defaultValue;
+    }
+
+    private RouteRules(Matcher[] matchers, String[] values, String defaultValue) {
+        this.matchers = matchers;
+        this.values = values;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @return rules with the same patterns and values, for use by another thread
+     */
+    public RouteRules copy() {
+        Matcher[] copied = new Matcher[matchers.length];
+        for (int i = 0; i < matchers.length; i++) {
+            copied[i] = matchers[i].pattern().matcher("");
+        }
+        return new RouteRules(copied, values, defaultValue);
+    }
+
+    /**
+     * @return header value of the line, null if no rule matches and there is no default
+     */
+    public String route(CharSequence line) {
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].reset(line).matches()) {
+                return values[i];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,13 @@
+package flume.source.plugin;
+
+/**
+ * How sources reading the same directory split its files.
+ */
+public enum ShardMode {
+    /** every source reads all files **/
+    NONE,
+    /** a source reads the files whose inode hashes to its shard index **/
+    HASH,
+    /** a source reads the files it holds a lease (lock file) on, free and abandoned files are taken over **/
+    LEASE
+}
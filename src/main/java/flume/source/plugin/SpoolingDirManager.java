@@ -9,12 +9,14 @@ import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -22,35 +24,170 @@ import java.util.regex.Pattern;
  */
 public class SpoolingDirManager {
     private static final Logger logger = LogManager.getLogger(SpoolingDirManager.class);
+    // 指纹缓存的最大文件数，超过后清空
+    private static final int MAX_CACHED_FINGERPRINTS = 4096;
 
     private final File spoolDirectory;
     private final Pattern ignorePattern;
-    /** Instance var to Cache directory listing **/
-    private Iterator<File> candidateFileIter = null;
+    // 已读完并重命名的文件后缀，不再读取
+    private final String completedSuffix;
+    // 递归读取子目录时匹配相对路径的正则，null不过滤
+    private final Pattern pathPattern;
+    // 递归读取子目录时的目录快照，不递归时为null
+    private final DirectoryTree directoryTree;
+    private final Tracer tracer;
+    // 多个source分读同一目录时本source可读的文件，不分片时为null
+    private final FileShards fileShards;
+    // 内容指纹的字节数，<=0 不使用指纹
+    private final int fingerprintBytes;
+    // 文件路径到inode、长度和内容指纹的缓存，inode改变、文件变短或未满指纹长度的文件变长时重新计算
+    private final Map<String, CachedFingerprint> fingerprints = new HashMap<String, CachedFingerprint>();
 
     private SpoolingDirManager() {
         spoolDirectory = null;
         ignorePattern = null;
+        completedSuffix = null;
+        pathPattern = null;
+        directoryTree = null;
+        tracer = Tracer.NOOP;
+        fileShards = null;
+        fingerprintBytes = 0;
     }
 
-    public SpoolingDirManager(File spoolDirectory, Pattern ignorePattern) {
+    /** fingerprint of a file when it had inode and size **/
+    private static class CachedFingerprint {
+        private final int inode;
+        private final long size;
+        private final FileFingerprint fingerprint;
+
+        CachedFingerprint(int inode, long size, FileFingerprint fingerprint) {
+            this.inode = inode;
+            this.size = size;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * @param completedSuffix suffix of completed files, which are not read, null or empty reads all files
+     * @param recursiveDepth levels of subdirectories to read files from, 0 only reads spoolDirectory
+     * @param pathPattern files whose path relative to spoolDirectory does not match are ignored, may be null
+     * @param tracer traces the directory scans
+     * @param fileShards files of other shards are ignored, null reads all files
+     * @param fingerprintBytes leading bytes of a file hashed into its fingerprint, <= 0 identifies files by inode only
+     */
+    public SpoolingDirManager(File spoolDirectory, Pattern ignorePattern, String completedSuffix,
+                              int recursiveDepth, Pattern pathPattern, Tracer tracer, FileShards fileShards,
+                              int fingerprintBytes) {
         this.spoolDirectory = spoolDirectory;
         this.ignorePattern = ignorePattern;
+        this.completedSuffix = completedSuffix == null || completedSuffix.isEmpty() ? null : completedSuffix;
+        this.pathPattern = pathPattern;
+        this.tracer = tracer;
+        this.fileShards = fileShards;
+        this.fingerprintBytes = fingerprintBytes;
+        if (recursiveDepth > 0) {
+            this.directoryTree = new DirectoryTree(spoolDirectory, recursiveDepth, new FileFilter() {
+                public boolean accept(File candidate) {
+                    return isCandidateName(candidate);
+                }
+            });
+        } else {
+            this.directoryTree = null;
+        }
+    }
+
+    /**
+     * whether the file may be read: no directory, hidden, ignored or completed file,
+     * nor a file of another shard. the directory snapshot only holds regular files
+     */
+    private boolean isCandidate(File candidate) {
+        return (directoryTree != null || !candidate.isDirectory()) && isCandidateName(candidate)
+                && (fileShards == null || fileShards.accept(getFileInode(candidate)));
+    }
+
+    private boolean isCandidateName(File candidate) {
+        String fileName = candidate.getName();
+        if ((fileName.startsWith("."))
+                || ignorePattern.matcher(fileName).matches()
+                || (completedSuffix != null && fileName.endsWith(completedSuffix))
+                || (pathPattern != null && !pathPattern.matcher(relativeName(candidate)).matches())) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * list the candidate files accepted by filter. reads the cached directory snapshot
+     * when subdirectories are read
+     */
+    private List<File> listFiles(FileFilter filter) {
+        Object trace = tracer.beginDirectoryScan();
+        List<File> files = scanFiles(filter);
+        tracer.endDirectoryScan(trace, spoolDirectory.getPath(), files.size());
+        return files;
+    }
+
+    /**
+     * list the directory tree into its cached snapshot, so later scans only check the
+     * directories for changes
+     * @return num of files, -1 if subdirectories are not read and nothing is cached
+     */
+    public int snapshot() {
+        if (directoryTree == null) {
+            return -1;
+        }
+        try {
+            return directoryTree.files().size();
+        } catch (IOException e) {
+            logger.warn("list spool directory:" + spoolDirectory + " exception:" + e.getMessage());
+            return -1;
+        }
+    }
+
+    private List<File> scanFiles(FileFilter filter) {
+        if (directoryTree == null) {
+            File[] files = spoolDirectory.listFiles(filter);
+            return files == null ? Collections.<File>emptyList() : Arrays.asList(files);
+        }
+        List<File> files;
+        try {
+            files = directoryTree.files();
+        } catch (IOException e) {
+            logger.warn("list spool directory:" + spoolDirectory + " exception:" + e.getMessage());
+            return Collections.emptyList();
+        }
+        List<File> accepted = new ArrayList<File>(files.size());
+        for (File file : files) {
+            if (filter.accept(file)) {
+                accepted.add(file);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * name of the file used in offsets: the path relative to spoolDirectory when subdirectories
+     * are read, else the file name
+     */
+    public String relativeName(File file) {
+        if (directoryTree == null) {
+            return file.getName();
+        }
+        String root = spoolDirectory.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (!path.startsWith(root)) {
+            return file.getName();
+        }
+        return path.substring(root.length()).replace(File.separatorChar, '/');
     }
 
     public Optional<FileInfo> getFileByInode(int inode) {
         FileFilter filter = new FileFilter() {
             public boolean accept(File candidate) {
-                String fileName = candidate.getName();
-                if ((candidate.isDirectory())
-                        || (fileName.startsWith("."))
-                        || ignorePattern.matcher(fileName).matches()) {
-                    return false;
-                }
-                return true;
+                return isCandidate(candidate);
             }
         };
-        List<File> fileList = Arrays.asList(spoolDirectory.listFiles(filter));
+        List<File> fileList = listFiles(filter);
         Iterator<File> iterator = fileList.iterator();
         // No matching file in spooling directory.
         if (!iterator.hasNext()) {
@@ -59,7 +196,7 @@ public class SpoolingDirManager {
         File selectedFile = null;
         int tempNode;
         for (File candidateFile : fileList) {
-            tempNode = getFileInode(candidateFile.getName());
+            tempNode = getFileInode(candidateFile);
             if (tempNode == -1) {
                 logger.warn("get file inode failed.");
                 continue;
@@ -76,6 +213,100 @@ public class SpoolingDirManager {
         return openFile(selectedFile);
     }
 
+    /**
+     * find a file by its name relative to the spool directory, then by its inode
+     */
+    public Optional<FileInfo> getFileByNameOrInode(String fileName, int inode) {
+        File named = new File(spoolDirectory, fileName);
+        if (named.isFile() && isCandidate(named) && getFileInode(named) == inode) {
+            return openFile(named);
+        }
+        return getFileByInode(inode);
+    }
+
+    /**
+     * find the file of a checkpoint: by its name, then by its inode, then by its fingerprint
+     * among the files modified since lastModified (a copy, e.g. after copytruncate rotation).
+     * a file with the inode but another content got the inode of a deleted file and is rejected.
+     * without fingerprint the file is looked up by inode only
+     */
+    public Optional<FileInfo> getFileByIdentity(String fileName, int inode, FileFingerprint fingerprint,
+                                                final long lastModified) {
+        if (fingerprint == null || fingerprintBytes <= 0) {
+            return getFileByInode(inode);
+        }
+        File named = new File(spoolDirectory, fileName);
+        if (named.isFile() && isCandidate(named) && getFileInode(named) == inode
+                && matches(fingerprint, named, inode)) {
+            return openFile(named);
+        }
+        FileFilter filter = new FileFilter() {
+            public boolean accept(File candidate) {
+                return isCandidate(candidate);
+            }
+        };
+        File copy = null;
+        for (File candidateFile : listFiles(filter)) {
+            int candidateInode = getFileInode(candidateFile);
+            if (candidateInode == inode) {
+                if (matches(fingerprint, candidateFile, candidateInode)) {
+                    return openFile(candidateFile);
+                }
+                logger.warn("file:" + candidateFile + " has the inode " + inode + " of file:" + fileName
+                        + " but another content. the inode was reused, ignore it.");
+            } else if (copy == null && candidateFile.lastModified() >= lastModified
+                    && matches(fingerprint, candidateFile, candidateInode)) {
+                copy = candidateFile;
+            }
+        }
+        if (copy != null) {
+            logger.info("found the content of file:" + fileName + " in file:" + copy + " by fingerprint.");
+            return openFile(copy);
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * whether the first bytes of file are the ones fingerprint was taken of. reads the file
+     * only if its cached fingerprint is stale or was taken over another number of bytes
+     */
+    private boolean matches(FileFingerprint fingerprint, File file, int inode) {
+        FileFingerprint current = getFingerprint(file, inode);
+        if (current != null && current.getLength() == fingerprint.getLength()) {
+            return current.equals(fingerprint);
+        }
+        // 保存检查点时文件比指纹长度短，需按当时的长度重新计算
+        return fingerprint.matches(file);
+    }
+
+    /**
+     * content fingerprint of a file, cached while its inode is unchanged and it does not shrink
+     * @return null if fingerprints are disabled or the file is empty
+     */
+    public synchronized FileFingerprint getFingerprint(File file, int inode) {
+        if (fingerprintBytes <= 0) {
+            return null;
+        }
+        String key = file.getAbsolutePath();
+        long size = file.length();
+        CachedFingerprint cached = fingerprints.get(key);
+        // 文件变短说明被截断或重写，指纹失效
+        if (cached != null && cached.inode == inode && size >= cached.size
+                && (cached.fingerprint.getLength() >= fingerprintBytes || size == cached.size)) {
+            return cached.fingerprint;
+        }
+        FileFingerprint fingerprint = FileFingerprint.of(file, fingerprintBytes);
+        if (fingerprint == null) {
+            fingerprints.remove(key);
+            return null;
+        }
+        if (fingerprints.size() >= MAX_CACHED_FINGERPRINTS) {
+            fingerprints.clear();
+        }
+        fingerprints.put(key, new CachedFingerprint(inode, size, fingerprint));
+        return fingerprint;
+    }
+
     /**
      * this function will just run for the first time to run flume(or the offset file not exist or deleted)
      * get the newest file and read from this file
@@ -84,16 +315,10 @@ public class SpoolingDirManager {
     public Optional<FileInfo> getNewestFile() {
         FileFilter filter = new FileFilter() {
             public boolean accept(File candidate) {
-                String fileName = candidate.getName();
-                if ((candidate.isDirectory())
-                        || (fileName.startsWith("."))
-                        || ignorePattern.matcher(fileName).matches()) {
-                    return false;
-                }
-                return true;
+                return isCandidate(candidate);
             }
         };
-        List<File> fileList = Arrays.asList(spoolDirectory.listFiles(filter));
+        List<File> fileList = listFiles(filter);
         Iterator<File> iterator = fileList.iterator();
         // No matching file in spooling directory.
         if (!iterator.hasNext()) {
@@ -104,51 +329,72 @@ public class SpoolingDirManager {
             return Optional.absent();
         }
         File selectedFile = iterator.next();
-        for (File candidateFile : fileList) {
-            long compare = selectedFile.lastModified() - candidateFile.lastModified();
-            if (compare == 0) { // ts is same pick smallest lexicographically.
+        long selectedModified = selectedFile.lastModified();
+        while (iterator.hasNext()) {
+            File candidateFile = iterator.next();
+            long modified = candidateFile.lastModified();
+            if (modified == selectedModified) { // ts is same pick smallest lexicographically.
                 selectedFile = smallerLexicographical(selectedFile, candidateFile);
-            } else if (compare < 0) { // candidate is newer (cand-ts < selec-ts)
+            } else if (modified > selectedModified) { // candidate is newer
                 selectedFile = candidateFile;
+                selectedModified = modified;
             }
         }
         return openFile(selectedFile);
     }
 
     public Optional<FileInfo> getNewerFile(final long lastReadTime) {
-        List<File> candidateFiles = Collections.emptyList();
+        return oldestModifiedAfter(lastReadTime, false);
+    }
+
+    /**
+     * the oldest candidate modified after lastReadTime (or at it if inclusive), of equally old
+     * files the lexicographically smallest. the modified time of each file is taken once
+     */
+    private Optional<FileInfo> oldestModifiedAfter(long lastReadTime, boolean inclusive) {
         /* Filter to exclude finished or hidden files */
         FileFilter filter = new FileFilter() {
             public boolean accept(File candidate) {
-                String fileName = candidate.getName();
-                if ((candidate.isDirectory())
-                        || (fileName.startsWith("."))
-                        || ignorePattern.matcher(fileName).matches()
-                        || (candidate.lastModified() <= lastReadTime)) {
-                    return false;
-                }
-                return true;
+                return isCandidate(candidate);
             }
         };
-        candidateFiles = Arrays.asList(spoolDirectory.listFiles(filter));
-        candidateFileIter = candidateFiles.iterator();
-
+        File selectedFile = null;
+        long selectedModified = 0;
+        for (File candidateFile : listFiles(filter)) {
+            long modified = candidateFile.lastModified();
+            if (modified < lastReadTime || (modified == lastReadTime && !inclusive)) {
+                continue;
+            }
+            if (selectedFile == null || modified < selectedModified) {
+                selectedFile = candidateFile;
+                selectedModified = modified;
+            } else if (modified == selectedModified) { // ts is same pick smallest lexicographically.
+                selectedFile = smallerLexicographical(selectedFile, candidateFile);
+            }
+        }
         // No matching file in spooling directory.
-        if (!candidateFileIter.hasNext()) {
+        if (selectedFile == null) {
             return Optional.absent();
         }
+        return openFile(selectedFile);
+    }
 
-        File selectedFile = candidateFileIter.next();
-        for (File candidateFile : candidateFiles) {
-            long compare = selectedFile.lastModified() - candidateFile.lastModified();
-            if (compare == 0) { // ts is same pick smallest lexicographically.
-                selectedFile = smallerLexicographical(selectedFile, candidateFile);
-            } else if (compare > 0) { // candidate is older (cand-ts < selec-ts)
-                selectedFile = candidateFile;
+    /**
+     * total length of the files modified after lastReadTime
+     */
+    public long getNewerFilesLength(final long lastReadTime) {
+        FileFilter filter = new FileFilter() {
+            public boolean accept(File candidate) {
+                return isCandidate(candidate) && candidate.lastModified() > lastReadTime;
             }
+        };
+        long length = 0;
+        for (File candidateFile : listFiles(filter)) {
+            length += candidateFile.length();
         }
-        return openFile(selectedFile);
+        return length;
     }
+
     /**
      * Returns the next file to be consumed from the chosen directory.
      * If the directory is empty or the chosen file is not readable,
@@ -156,42 +402,16 @@ public class SpoolingDirManager {
      * the chosen file's modify time must be above lastReadTime
      */
     public Optional<FileInfo> getNextFile(final long lastReadTime) {
-        List<File> candidateFiles = Collections.emptyList();
-        /* Filter to exclude finished or hidden files */
-        FileFilter filter = new FileFilter() {
-            public boolean accept(File candidate) {
-                String fileName = candidate.getName();
-                if ((candidate.isDirectory())
-                        || (fileName.startsWith("."))
-                        || ignorePattern.matcher(fileName).matches()
-                        || (candidate.lastModified() < lastReadTime)) {
-                    return false;
-                }
-                return true;
-            }
-        };
-        candidateFiles = Arrays.asList(spoolDirectory.listFiles(filter));
-        candidateFileIter = candidateFiles.iterator();
-
-        // No matching file in spooling directory.
-        if (!candidateFileIter.hasNext()) {
-            return Optional.absent();
-        }
-
-        File selectedFile = candidateFileIter.next();
-        for (File candidateFile : candidateFiles) {
-            long compare = selectedFile.lastModified() - candidateFile.lastModified();
-            if (compare == 0) { // ts is same pick smallest lexicographically.
-                selectedFile = smallerLexicographical(selectedFile, candidateFile);
-            } else if (compare > 0) { // candidate is older (cand-ts < selec-ts)
-                selectedFile = candidateFile;
-            }
-        }
-        return openFile(selectedFile);
+        return oldestModifiedAfter(lastReadTime, true);
     }
 
     public int getFileInode(String fileName) {
-        Path path = Paths.get(spoolDirectory + "/" + fileName);
+        return getFileInode(new File(spoolDirectory, fileName));
+    }
+
+    public int getFileInode(File file) {
+        Path path = file.toPath();
+        String fileName = file.getName();
         try {
             BasicFileAttributes attributes = java.nio.file.Files.readAttributes(path, BasicFileAttributes.class);
             Object key = attributes.fileKey();
@@ -211,7 +431,7 @@ public class SpoolingDirManager {
     }
 
     public File smallerLexicographical(File f1, File f2) {
-        if (f1.getName().compareTo(f2.getName()) < 0) {
+        if (relativeName(f1).compareTo(relativeName(f2)) < 0) {
             return f1;
         }
         return f2;
@@ -0,0 +1,271 @@
+package flume.source.plugin;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the event time of a line, so sinks can partition by it without an extra
+ * interceptor pass.
+ * The timestamp is taken either at a fixed position of the line, or from a regex group:
+ * the group named {@value #GROUP_NAME} of filterContentPattern (no extra regex pass, the
+ * filter already matched it) or group 1 of a dedicated timestampPattern.
+ * Fixed width layouts made of yyyy MM dd HH mm ss SSS are parsed by digit position with a
+ * cached hour start, other layouts fall back to SimpleDateFormat. Parser state is thread
+ * confined.
+ */
+public class TimestampExtractor {
+    public static final String GROUP_NAME = "timestamp";
+    // 按位置提取时，最多取的字符数
+    private static final int MAX_PREFIX_LENGTH = 64;
+
+    private final String format;
+    private final TimeZone timeZone;
+    private final int offset;
+    private final Pattern timestampPattern;
+    private final boolean useFilterGroup;
+    /** field positions of the fast path layout, null if the layout is not supported **/
+    private final int[] fastLayout;
+    private final int fastLength;
+
+    private final ThreadLocal<ParseState> parseState = new ThreadLocal<ParseState>() {
+        @Override
+        protected ParseState initialValue() {
+            return new ParseState();
+        }
+    };
+
+    /**
+     * @param format SimpleDateFormat pattern of the timestamp
+     * @param timeZone time zone id, null or empty for the local time zone
+     * @param offset char position of the timestamp in the line, used if no pattern is set
+     * @param timestampPattern regex whose group 1 is the timestamp, may be null
+     * @param filterContentPattern content filter, used if it has a group named {@value #GROUP_NAME}
+     */
+    public TimestampExtractor(String format, String timeZone, int offset,
+                              String timestampPattern, Pattern filterContentPattern) {
+        if (format == null || format.isEmpty()) {
+            throw new IllegalArgumentException("timestamp format must be set");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("timestamp offset must not be negative:" + offset);
+        }
+        this.format = format;
+        this.timeZone = timeZone == null || timeZone.isEmpty()
+                ? TimeZone.getDefault() : TimeZone.getTimeZone(timeZone);
+        this.offset = offset;
+        this.useFilterGroup = (timestampPattern == null || timestampPattern.isEmpty())
+                && filterContentPattern.pattern().contains("(?<" + GROUP_NAME + ">");
+        this.timestampPattern = timestampPattern == null || timestampPattern.isEmpty()
+                ? null : Pattern.compile(timestampPattern);
+        // validate the format
+        new SimpleDateFormat(format);
+        this.fastLayout = fastLayout(format);
+        this.fastLength = fastLayout == null ? 0 : unquote(format).length();
+    }
+
+    public boolean usesFilterGroup() { return useFilterGroup; }
+
+    /**
+     * @param line line content
+     * @param filterMatcher matcher of filterContentPattern which matched line
+     * @return epoch millis, -1 if no timestamp was found
+     */
+    public long extract(CharSequence line, Matcher filterMatcher) {
+        ParseState state = parseState.get();
+        if (useFilterGroup) {
+            String text = filterMatcher.group(GROUP_NAME);
+            if (text == null) {
+                return -1;
+            }
+            return parse(state, text, 0, text.length());
+        }
+        if (timestampPattern != null) {
+            Matcher matcher = state.matcher(timestampPattern, line);
+            if (!matcher.find() || matcher.groupCount() < 1 || matcher.start(1) < 0) {
+                return -1;
+            }
+            return parse(state, line, matcher.start(1), matcher.end(1));
+        }
+        return parse(state, line, offset, Math.min(line.length(), offset + MAX_PREFIX_LENGTH));
+    }
+
+    private long parse(ParseState state, CharSequence line, int start, int end) {
+        if (fastLayout != null) {
+            long millis = parseFast(state, line, start, end);
+            if (millis >= 0) {
+                return millis;
+            }
+        }
+        if (start >= end) {
+            return -1;
+        }
+        // 非固定格式，使用SimpleDateFormat解析
+        String text = line.subSequence(start, end).toString();
+        ParsePosition position = new ParsePosition(0);
+        Date date = state.dateFormat().parse(text, position);
+        return date == null ? -1 : date.getTime();
+    }
+
+    private long parseFast(ParseState state, CharSequence line, int start, int end) {
+        if (end - start < fastLength) {
+            return -1;
+        }
+        int year = digits(line, start, fastLayout[0], 4);
+        int month = digits(line, start, fastLayout[1], 2);
+        int day = digits(line, start, fastLayout[2], 2);
+        int hour = digits(line, start, fastLayout[3], 2);
+        int minute = digits(line, start, fastLayout[4], 2);
+        int second = digits(line, start, fastLayout[5], 2);
+        int millis = fastLayout[6] < 0 ? 0 : digits(line, start, fastLayout[6], 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return -1;
+        }
+        // 校验分隔符
+        for (int i = 0; i < fastLength; i++) {
+            char expected = state.literals[i];
+            if (expected != 0 && line.charAt(start + i) != expected) {
+                return -1;
+            }
+        }
+        long hourKey = ((year * 100L + month) * 100 + day) * 100 + hour;
+        if (hourKey != state.cachedHourKey) {
+            Calendar calendar = state.calendar();
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, 0, 0);
+            try {
+                state.cachedHourStart = calendar.getTimeInMillis();
+            } catch (IllegalArgumentException e) {
+                // 日期不存在，如2月30日
+                return -1;
+            }
+            state.cachedHourKey = hourKey;
+        }
+        return state.cachedHourStart + minute * 60000L + second * 1000L + millis;
+    }
+
+    private static int digits(CharSequence line, int start, int position, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            char c = line.charAt(start + position + i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * positions of yyyy MM dd HH mm ss SSS in the unquoted format, null if the format contains
+     * anything else than these fields and non-letter (or quoted) literals
+     */
+    private static int[] fastLayout(String format) {
+        String[] fields = {"yyyy", "MM", "dd", "HH", "mm", "ss", "SSS"};
+        int[] layout = {-1, -1, -1, -1, -1, -1, -1};
+        StringBuilder unquoted = new StringBuilder();
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                int close = format.indexOf('\'', i + 1);
+                if (close < 0 || close == i + 1) {
+                    return null;
+                }
+                unquoted.append(format, i + 1, close);
+                i = close + 1;
+                continue;
+            }
+            if (!Character.isLetter(c)) {
+                unquoted.append(c);
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < format.length() && format.charAt(j) == c) {
+                j++;
+            }
+            String field = format.substring(i, j);
+            int index = -1;
+            for (int k = 0; k < fields.length; k++) {
+                if (fields[k].equals(field)) {
+                    index = k;
+                }
+            }
+            if (index < 0 || layout[index] >= 0) {
+                return null;
+            }
+            layout[index] = unquoted.length();
+            unquoted.append(field);
+            i = j;
+        }
+        for (int k = 0; k < 6; k++) {
+            if (layout[k] < 0) {
+                return null;
+            }
+        }
+        return layout;
+    }
+
+    private static String unquote(String format) {
+        return format.replace("'", "");
+    }
+
+    /** per thread parser state **/
+    private class ParseState {
+        private SimpleDateFormat dateFormat;
+        private Calendar calendar;
+        private Matcher matcher;
+        /** literal chars of the fast layout, 0 at field positions **/
+        private final char[] literals;
+        private long cachedHourKey = -1;
+        private long cachedHourStart;
+
+        ParseState() {
+            String unquoted = unquote(format);
+            literals = new char[unquoted.length()];
+            if (fastLayout != null) {
+                for (int i = 0; i < literals.length; i++) {
+                    literals[i] = unquoted.charAt(i);
+                }
+                int[] widths = {4, 2, 2, 2, 2, 2, 3};
+                for (int k = 0; k < fastLayout.length; k++) {
+                    for (int i = 0; fastLayout[k] >= 0 && i < widths[k]; i++) {
+                        literals[fastLayout[k] + i] = 0;
+                    }
+                }
+            }
+        }
+
+        SimpleDateFormat dateFormat() {
+            if (dateFormat == null) {
+                dateFormat = new SimpleDateFormat(format);
+                dateFormat.setTimeZone(timeZone);
+                dateFormat.setLenient(false);
+            }
+            return dateFormat;
+        }
+
+        Calendar calendar() {
+            if (calendar == null) {
+                calendar = Calendar.getInstance(timeZone);
+                calendar.setLenient(false);
+            }
+            return calendar;
+        }
+
+        Matcher matcher(Pattern pattern, CharSequence line) {
+            if (matcher == null) {
+                matcher = pattern.matcher(line);
+            } else {
+                matcher.reset(line);
+            }
+            return matcher;
+        }
+    }
+}
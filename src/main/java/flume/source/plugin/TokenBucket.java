@@ -0,0 +1,52 @@
+package flume.source.plugin;
+
+/**
+ * Simple token bucket. Tokens are refilled continuously at ratePerSecond and the bucket
+ * holds at most one second worth of tokens.
+ * A caller may take more tokens than available, the bucket then goes into debt and
+ * {@link #reserve(long)} returns how long the caller has to wait to pay it back.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long ratePerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long ratePerSecond) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive:" + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = ratePerSecond;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public long getRatePerSecond() { return ratePerSecond; }
+
+    /**
+     * take permits from the bucket
+     * @param permits num of tokens to take
+     * @return nanos to wait before going on, 0 if there were enough tokens
+     */
+    public synchronized long reserve(long permits) {
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / ratePerSecond);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        tokens = Math.min(capacity, tokens + (double) elapsed * ratePerSecond / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+}
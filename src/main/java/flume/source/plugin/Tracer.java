@@ -0,0 +1,88 @@
+package flume.source.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hooks around the phases of the source (read batch, directory scan, channel put, offset
+ * save) for profilers. The default instance does nothing: begin returns null and end returns
+ * at once, so disabled tracing costs one virtual call per phase and no allocation.
+ * {@link #create(boolean)} loads the Java Flight Recorder implementation reflectively, so
+ * the source still runs on JVMs without jdk.jfr. The JFR classes are in src/main/jfr, which
+ * is only compiled by the jfr profile on JDK 11 and later.
+ */
+public class Tracer {
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+    private static final String JFR_TRACER = "flume.source.plugin.JfrTracer";
+
+    public static final Tracer NOOP = new Tracer();
+
+    protected Tracer() {
+    }
+
+    /**
+     * @param jfrEvents whether JFR events should be emitted
+     * @return the JFR tracer, NOOP if disabled or JFR is not available
+     */
+    public static Tracer create(boolean jfrEvents) {
+        if (!jfrEvents) {
+            return NOOP;
+        }
+        try {
+            Tracer tracer = (Tracer) Class.forName(JFR_TRACER).getDeclaredConstructor().newInstance();
+            logger.info("JFR events enabled");
+            return tracer;
+        } catch (Throwable e) {
+            // jdk.jfr不存在（JDK 11以下），或未以JDK 11以上编译
+            logger.warn("JFR events are not available on this JVM, tracing disabled:" + e);
+            return NOOP;
+        }
+    }
+
+    /** @return handle passed to {@link #endReadBatch}, null if not traced **/
+    public Object beginReadBatch() {
+        return null;
+    }
+
+    /**
+     * @param file name of the file read
+     * @param bytes bytes read
+     * @param lines lines read
+     * @param filtered lines dropped by the content filters
+     * @param events events produced
+     */
+    public void endReadBatch(Object handle, String file, long bytes, long lines, long filtered, int events) {
+    }
+
+    public Object beginDirectoryScan() {
+        return null;
+    }
+
+    /**
+     * @param directory scanned directory
+     * @param files candidate files found
+     */
+    public void endDirectoryScan(Object handle, String directory, int files) {
+    }
+
+    public Object beginChannelPut() {
+        return null;
+    }
+
+    /**
+     * @param events events of the batch
+     * @param succeeded false if the channel rejected the batch
+     */
+    public void endChannelPut(Object handle, int events, boolean succeeded) {
+    }
+
+    public Object beginOffsetSave() {
+        return null;
+    }
+
+    /**
+     * @param offset saved offset string
+     */
+    public void endOffsetSave(Object handle, String offset) {
+    }
+}
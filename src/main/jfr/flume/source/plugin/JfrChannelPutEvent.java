@@ -0,0 +1,26 @@
+package flume.source.plugin;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event: processEventBatch of one batch
+ */
+@Name("flume.source.plugin.ChannelPut")
+@Label("Channel Put")
+@Description("processEventBatch of one batch")
+@Category({"Flume", "Reliable Tail Source"})
+@StackTrace(false)
+class JfrChannelPutEvent extends jdk.jfr.Event {
+    static final EventType TYPE = EventType.getEventType(JfrChannelPutEvent.class);
+
+    @Label("Events")
+    int events;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
@@ -0,0 +1,26 @@
+package flume.source.plugin;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event: listing of the candidate files of the spool directory
+ */
+@Name("flume.source.plugin.DirectoryScan")
+@Label("Directory Scan")
+@Description("listing of the candidate files of the spool directory")
+@Category({"Flume", "Reliable Tail Source"})
+@StackTrace(false)
+class JfrDirectoryScanEvent extends jdk.jfr.Event {
+    static final EventType TYPE = EventType.getEventType(JfrDirectoryScanEvent.class);
+
+    @Label("Directory")
+    String directory;
+
+    @Label("Files")
+    int files;
+}
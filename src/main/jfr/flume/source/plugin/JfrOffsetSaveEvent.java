@@ -0,0 +1,23 @@
+package flume.source.plugin;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event: writing the offset file
+ */
+@Name("flume.source.plugin.OffsetSave")
+@Label("Offset Save")
+@Description("writing the offset file")
+@Category({"Flume", "Reliable Tail Source"})
+@StackTrace(false)
+class JfrOffsetSaveEvent extends jdk.jfr.Event {
+    static final EventType TYPE = EventType.getEventType(JfrOffsetSaveEvent.class);
+
+    @Label("Offset")
+    String offset;
+}
@@ -0,0 +1,35 @@
+package flume.source.plugin;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event: one readEvents call of the reader
+ */
+@Name("flume.source.plugin.ReadBatch")
+@Label("Read Batch")
+@Description("one readEvents call of the reader")
+@Category({"Flume", "Reliable Tail Source"})
+@StackTrace(false)
+class JfrReadBatchEvent extends jdk.jfr.Event {
+    static final EventType TYPE = EventType.getEventType(JfrReadBatchEvent.class);
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Filtered Lines")
+    long filtered;
+
+    @Label("Events")
+    int events;
+}
@@ -0,0 +1,107 @@
+package flume.source.plugin;
+
+/**
+ * {@link Tracer} emitting Java Flight Recorder events. Only loaded by {@link Tracer#create(boolean)}
+ * when JFR events are enabled, requires jdk.jfr (JDK 11 or later).
+ * Events are only created while the event type is enabled in the running recording.
+ */
+public class JfrTracer extends Tracer {
+
+    @Override
+    public Object beginReadBatch() {
+        if (!JfrReadBatchEvent.TYPE.isEnabled()) {
+            return null;
+        }
+        JfrReadBatchEvent event = new JfrReadBatchEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endReadBatch(Object handle, String file, long bytes, long lines, long filtered, int events) {
+        if (handle == null) {
+            return;
+        }
+        JfrReadBatchEvent event = (JfrReadBatchEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.bytes = bytes;
+            event.lines = lines;
+            event.filtered = filtered;
+            event.events = events;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginDirectoryScan() {
+        if (!JfrDirectoryScanEvent.TYPE.isEnabled()) {
+            return null;
+        }
+        JfrDirectoryScanEvent event = new JfrDirectoryScanEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endDirectoryScan(Object handle, String directory, int files) {
+        if (handle == null) {
+            return;
+        }
+        JfrDirectoryScanEvent event = (JfrDirectoryScanEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.directory = directory;
+            event.files = files;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginChannelPut() {
+        if (!JfrChannelPutEvent.TYPE.isEnabled()) {
+            return null;
+        }
+        JfrChannelPutEvent event = new JfrChannelPutEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endChannelPut(Object handle, int events, boolean succeeded) {
+        if (handle == null) {
+            return;
+        }
+        JfrChannelPutEvent event = (JfrChannelPutEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.events = events;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginOffsetSave() {
+        if (!JfrOffsetSaveEvent.TYPE.isEnabled()) {
+            return null;
+        }
+        JfrOffsetSaveEvent event = new JfrOffsetSaveEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endOffsetSave(Object handle, String offset) {
+        if (handle == null) {
+            return;
+        }
+        JfrOffsetSaveEvent event = (JfrOffsetSaveEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.offset = offset;
+            event.commit();
+        }
+    }
+}
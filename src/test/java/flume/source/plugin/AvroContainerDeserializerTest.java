@@ -0,0 +1,134 @@
+package flume.source.plugin;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AvroContainerDeserializerTest {
+    private static final Schema SCHEMA = new Schema.Parser().parse(
+            "{\"type\":\"record\",\"name\":\"Line\",\"fields\":[{\"name\":\"n\",\"type\":\"int\"}]}");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LineReader reader;
+    private AvroContainerDeserializer deserializer;
+
+    @After
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private void open() throws IOException {
+        reader = new LineReader(file, 64);
+        deserializer = new AvroContainerDeserializer(reader);
+    }
+
+    /** write each group of numbers as one block **/
+    private void write(boolean append, int[]... blocks) throws IOException {
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new GenericDatumWriter<GenericRecord>(SCHEMA));
+        if (append) {
+            writer.appendTo(file);
+        } else {
+            writer.create(SCHEMA, file);
+        }
+        try {
+            for (int[] block : blocks) {
+                for (int n : block) {
+                    GenericRecord record = new GenericData.Record(SCHEMA);
+                    record.put("n", n);
+                    writer.append(record);
+                }
+                writer.sync();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private int read() throws IOException {
+        Event event = deserializer.readEvent(false);
+        assertNotNull(event);
+        assertNotNull(event.getHeaders().get(AvroContainerDeserializer.SCHEMA_HASH_HEADER));
+        GenericRecord record = new GenericDatumReader<GenericRecord>(SCHEMA).read(null,
+                DecoderFactory.get().binaryDecoder(event.getBody(), null));
+        return (Integer) record.get("n");
+    }
+
+    @Test
+    public void recordsOfAllBlocks() throws IOException {
+        file = new File(folder.getRoot(), "a.avro");
+        write(false, new int[]{1, 2}, new int[]{3});
+        open();
+        assertEquals(1, read());
+        assertEquals(2, read());
+        assertEquals(3, read());
+        assertNull(deserializer.readEvent(false));
+    }
+
+    @Test
+    public void blocksAppendedAfterEndOfFileAreRead() throws IOException {
+        file = new File(folder.getRoot(), "a.avro");
+        write(false, new int[]{1});
+        open();
+        assertEquals(1, read());
+        assertNull(deserializer.readEvent(false));
+        write(true, new int[]{2, 3});
+        assertEquals(2, read());
+        assertEquals(3, read());
+        assertNull(deserializer.readEvent(false));
+    }
+
+    @Test
+    public void seekInsideBlockSkipsReadRecords() throws IOException {
+        file = new File(folder.getRoot(), "a.avro");
+        write(false, new int[]{1, 2, 3}, new int[]{4, 5});
+        open();
+        assertEquals(1, read());
+        assertEquals(2, read());
+        long insideFirst = deserializer.getPosition();
+        assertEquals(3, read());
+        assertEquals(4, read());
+        long insideSecond = deserializer.getPosition();
+        deserializer.seek(insideFirst);
+        assertEquals(3, read());
+        deserializer.seek(insideSecond);
+        assertEquals(5, read());
+        assertNull(deserializer.readEvent(false));
+
+        // 新的reader从保存的位置继续
+        reader.close();
+        open();
+        deserializer.seek(insideSecond);
+        assertEquals(5, read());
+    }
+
+    @Test
+    public void incompleteHeaderIsReadWhenWritten() throws IOException {
+        file = folder.newFile("a.avro");
+        open();
+        assertNull(deserializer.readEvent(false));
+        write(false, new int[]{7});
+        assertEquals(7, read());
+    }
+}
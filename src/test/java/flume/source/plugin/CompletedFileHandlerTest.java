@@ -0,0 +1,128 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompletedFileHandlerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private SpoolingDirManager manager;
+    private CompletedFileHandler handler;
+
+    @Before
+    public void create() throws IOException {
+        directory = folder.newFolder("spool");
+        manager = new SpoolingDirManager(directory, Pattern.compile("^$"), null, 0, null, Tracer.NOOP, null, 0);
+    }
+
+    @After
+    public void close() {
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    private File write(String name) throws IOException {
+        File file = new File(directory, name);
+        Files.write("line\n", file, Charsets.UTF_8);
+        return file;
+    }
+
+    private void finish(File file) {
+        handler.fileFinished(file, manager.getFileInode(file));
+    }
+
+    private static boolean await(File file, boolean exists) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (file.exists() != exists && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return file.exists() == exists;
+    }
+
+    @Test
+    public void fileIsRenamedAfterOffsetSaved() throws Exception {
+        handler = new CompletedFileHandler(CompletionPolicy.RENAME, ".COMPLETED", null, 0, manager);
+        File file = write("a.log");
+        finish(file);
+        Thread.sleep(100);
+        // offset保存前不处理
+        assertTrue(file.exists());
+        handler.offsetSaved();
+        assertTrue(await(new File(directory, "a.log.COMPLETED"), true));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void fileIsMovedWithoutOverwritingArchivedFile() throws Exception {
+        File archive = new File(folder.getRoot(), "archive");
+        handler = new CompletedFileHandler(CompletionPolicy.MOVE, null, archive.getPath(), 0, manager);
+        File file = write("a.log");
+        finish(file);
+        handler.offsetSaved();
+        assertTrue(await(new File(archive, "a.log"), true));
+        File again = write("a.log");
+        finish(again);
+        handler.offsetSaved();
+        assertTrue(await(again, false));
+        assertEquals(2, archive.list().length);
+    }
+
+    @Test
+    public void fileIsDeleted() throws Exception {
+        handler = new CompletedFileHandler(CompletionPolicy.DELETE, null, null, 0, manager);
+        File file = write("a.log");
+        finish(file);
+        handler.offsetSaved();
+        assertTrue(await(file, false));
+    }
+
+    @Test
+    public void modifiedFileIsLeft() throws Exception {
+        handler = new CompletedFileHandler(CompletionPolicy.DELETE, null, null, 200, manager);
+        File file = write("a.log");
+        finish(file);
+        handler.offsetSaved();
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        Thread.sleep(500);
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void fileWaitingForGracePeriodIsLeftOnClose() throws Exception {
+        handler = new CompletedFileHandler(CompletionPolicy.DELETE, null, null, 60000, manager);
+        File file = write("a.log");
+        finish(file);
+        handler.offsetSaved();
+        handler.close();
+        handler = null;
+        assertTrue(file.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renameNeedsSuffix() {
+        new CompletedFileHandler(CompletionPolicy.RENAME, "", null, 0, manager);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moveNeedsArchiveDirectory() {
+        new CompletedFileHandler(CompletionPolicy.MOVE, null, null, 0, manager);
+    }
+}
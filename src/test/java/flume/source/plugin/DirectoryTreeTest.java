@@ -0,0 +1,117 @@
+package flume.source.plugin;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryTreeTest {
+    private static final FileFilter LOGS = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(".log");
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void create() {
+        root = folder.getRoot();
+    }
+
+    private File touch(String path) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        assertTrue(file.createNewFile());
+        return file;
+    }
+
+    private Set<String> names(DirectoryTree tree) throws IOException {
+        List<File> files = tree.files();
+        Set<String> names = new HashSet<String>();
+        String prefix = root.getPath() + File.separator;
+        for (File file : files) {
+            names.add(file.getPath().substring(prefix.length()).replace(File.separatorChar, '/'));
+        }
+        assertEquals("duplicate files:" + files, files.size(), names.size());
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        Set<String> set = new HashSet<String>();
+        for (String name : names) {
+            set.add(name);
+        }
+        return set;
+    }
+
+    @Test
+    public void filesDownToMaxDepth() throws IOException {
+        touch("a.log");
+        touch("a.txt");
+        touch("x/b.log");
+        touch("x/y/c.log");
+        touch("x/y/z/d.log");
+        touch(".hidden/e.log");
+        assertEquals(set("a.log", "x/b.log", "x/y/c.log"), names(new DirectoryTree(root, 2, LOGS)));
+        assertEquals(set("a.log"), names(new DirectoryTree(root, 0, LOGS)));
+    }
+
+    @Test
+    public void changedDirectoriesAreListedAgain() throws IOException {
+        touch("x/b.log");
+        DirectoryTree tree = new DirectoryTree(root, 1, LOGS);
+        assertEquals(set("x/b.log"), names(tree));
+        touch("x/c.log");
+        touch("d.log");
+        assertEquals(set("x/b.log", "x/c.log", "d.log"), names(tree));
+        assertTrue(new File(root, "x/b.log").delete());
+        assertEquals(set("x/c.log", "d.log"), names(tree));
+    }
+
+    @Test
+    public void unchangedDirectoryIsNotListedAgain() throws IOException {
+        File directory = new File(root, "x");
+        touch("x/b.log");
+        long old = System.currentTimeMillis() - 60000;
+        assertTrue(directory.setLastModified(old));
+        DirectoryTree tree = new DirectoryTree(root, 1, LOGS);
+        assertEquals(set("x/b.log"), names(tree));
+        // 目录修改时间不变时使用缓存的列表
+        touch("x/c.log");
+        assertTrue(directory.setLastModified(old));
+        assertEquals(set("x/b.log"), names(tree));
+        assertTrue(directory.setLastModified(System.currentTimeMillis()));
+        assertEquals(set("x/b.log", "x/c.log"), names(tree));
+    }
+
+    @Test
+    public void deletedSubdirectoryIsDropped() throws IOException {
+        File file = touch("x/b.log");
+        touch("a.log");
+        DirectoryTree tree = new DirectoryTree(root, 1, LOGS);
+        assertEquals(set("x/b.log", "a.log"), names(tree));
+        assertTrue(file.delete());
+        assertTrue(file.getParentFile().delete());
+        assertEquals(set("a.log"), names(tree));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingRootFails() throws IOException {
+        new DirectoryTree(new File(root, "missing"), 1, LOGS).files();
+    }
+}
@@ -0,0 +1,160 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateSuppressorTest {
+    private static final String TIMESTAMP = "timestamp";
+    private static final String ROUTE = "route";
+
+    private final List<Event> events = new ArrayList<Event>();
+
+    private static DuplicateSuppressor collapse(long windowMillis, long windowLines, int slots) {
+        return new DuplicateSuppressor(DuplicatePolicy.COLLAPSE, windowMillis, windowLines, slots, TIMESTAMP, ROUTE);
+    }
+
+    /** @return true if the line was dropped **/
+    private static boolean offer(DuplicateSuppressor suppressor, String line, long now) {
+        if (suppressor.isDuplicate(CharBuffer.wrap(line), now)) {
+            return true;
+        }
+        byte[] body = line.getBytes(Charsets.UTF_8);
+        suppressor.sample(body, 0, body.length, now, "r-" + line);
+        return false;
+    }
+
+    private List<Event> drain(DuplicateSuppressor suppressor) {
+        events.clear();
+        suppressor.drainSummaries(events, Integer.MAX_VALUE);
+        return events;
+    }
+
+    @Test
+    public void repeatsWithinTimeWindowAreDropped() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 16);
+        assertFalse(offer(suppressor, "a", 0));
+        assertTrue(offer(suppressor, "a", 10));
+        assertFalse(offer(suppressor, "b", 20));
+        assertTrue(offer(suppressor, "a", 999));
+        assertFalse(offer(suppressor, "a", 1000));
+    }
+
+    @Test
+    public void repeatsWithinLineWindowAreDropped() {
+        DuplicateSuppressor suppressor = collapse(0, 2, 16);
+        assertFalse(offer(suppressor, "a", 0));
+        assertTrue(offer(suppressor, "a", 0));
+        assertTrue(offer(suppressor, "a", 0));
+        assertFalse(offer(suppressor, "a", 0));
+    }
+
+    @Test
+    public void summaryCarriesCountSampleTimestampAndRoute() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 16);
+        offer(suppressor, "a", 100);
+        offer(suppressor, "a", 200);
+        offer(suppressor, "a", 300);
+        suppressor.expire(500);
+        assertTrue(drain(suppressor).isEmpty());
+        suppressor.expire(1100);
+        List<Event> summaries = drain(suppressor);
+        assertEquals(1, summaries.size());
+        Event summary = summaries.get(0);
+        assertEquals("a", new String(summary.getBody(), Charsets.UTF_8));
+        assertEquals("2", summary.getHeaders().get(DuplicateSuppressor.HEADER_COUNT));
+        assertEquals("100", summary.getHeaders().get(DuplicateSuppressor.HEADER_FIRST_SEEN));
+        assertEquals("100", summary.getHeaders().get(TIMESTAMP));
+        assertEquals("r-a", summary.getHeaders().get(ROUTE));
+        // 过期后重新开始计数
+        assertFalse(offer(suppressor, "a", 1200));
+    }
+
+    @Test
+    public void lineWithoutTimestampOrRouteHasNoSuchHeaders() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 16);
+        assertFalse(suppressor.isDuplicate(CharBuffer.wrap("a"), 0));
+        suppressor.sample(new byte[]{'a'}, 0, 1, -1, null);
+        assertTrue(suppressor.isDuplicate(CharBuffer.wrap("a"), 0));
+        suppressor.expire(1000);
+        Event summary = drain(suppressor).get(0);
+        assertNull(summary.getHeaders().get(TIMESTAMP));
+        assertNull(summary.getHeaders().get(ROUTE));
+    }
+
+    @Test
+    public void lineWithoutRepeatsHasNoSummary() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 16);
+        offer(suppressor, "a", 0);
+        suppressor.expire(5000);
+        assertTrue(drain(suppressor).isEmpty());
+    }
+
+    @Test
+    public void dropPolicyQueuesNoSummaries() {
+        DuplicateSuppressor suppressor = new DuplicateSuppressor(DuplicatePolicy.DROP, 1000, 0, 16, TIMESTAMP, ROUTE);
+        offer(suppressor, "a", 0);
+        assertTrue(offer(suppressor, "a", 0));
+        suppressor.expire(5000);
+        assertTrue(drain(suppressor).isEmpty());
+        assertFalse(offer(suppressor, "a", 5000));
+    }
+
+    @Test
+    public void slotTakenByAnotherLineIsSummarized() {
+        // 只有一个位置，每个新行都挤出上一行
+        DuplicateSuppressor suppressor = collapse(1000, 0, 1);
+        offer(suppressor, "a", 0);
+        offer(suppressor, "a", 0);
+        assertFalse(offer(suppressor, "b", 0));
+        List<Event> summaries = drain(suppressor);
+        assertEquals(1, summaries.size());
+        assertEquals("a", new String(summaries.get(0).getBody(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void summaryQueueIsBoundedBySlots() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 1);
+        offer(suppressor, "a", 0);
+        offer(suppressor, "a", 0);
+        // 挤出a，队列达到一个位置的上限
+        offer(suppressor, "b", 0);
+        offer(suppressor, "b", 0);
+        // 队列已满，b的计数留在位置中，c不被记住
+        assertFalse(offer(suppressor, "c", 0));
+        assertFalse(offer(suppressor, "c", 0));
+        assertTrue(offer(suppressor, "b", 0));
+        suppressor.expire(1000);
+        assertEquals(1, drain(suppressor).size());
+        // 队列取空后b过期并汇总
+        suppressor.expire(1000);
+        List<Event> summaries = drain(suppressor);
+        assertEquals(1, summaries.size());
+        assertEquals("b", new String(summaries.get(0).getBody(), Charsets.UTF_8));
+        assertEquals("2", summaries.get(0).getHeaders().get(DuplicateSuppressor.HEADER_COUNT));
+    }
+
+    @Test
+    public void drainDoesNotExceedMaxEvents() {
+        DuplicateSuppressor suppressor = collapse(1000, 0, 16);
+        for (String line : new String[]{"a", "b", "c"}) {
+            offer(suppressor, line, 0);
+            offer(suppressor, line, 0);
+        }
+        suppressor.expire(1000);
+        events.clear();
+        suppressor.drainSummaries(events, 2);
+        assertEquals(2, events.size());
+        suppressor.drainSummaries(events, 10);
+        assertEquals(3, events.size());
+    }
+}
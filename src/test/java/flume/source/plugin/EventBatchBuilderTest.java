@@ -0,0 +1,92 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventBatchBuilderTest {
+
+    private static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void bodyIsExactlyTheEncodedLine() {
+        EventBatchBuilder builder = new EventBatchBuilder(Charsets.UTF_8);
+        String line = "2026-10-01 错误 ERROR";
+        Event event = builder.build(line);
+        assertArrayEquals(line.getBytes(Charsets.UTF_8), event.getBody());
+        assertFalse(((LineEvent) event).hasHeaders());
+    }
+
+    @Test
+    public void encodeBufferIsReusedAndGrows() {
+        EventBatchBuilder builder = new EventBatchBuilder(Charsets.UTF_8);
+        ByteBuffer first = builder.encodeToBuffer("short");
+        assertSame(first, builder.encodeToBuffer("another line"));
+        assertEquals("another line".length(), first.position());
+        String longLine = repeat("x", 10000);
+        ByteBuffer grown = builder.encodeToBuffer(longLine);
+        assertEquals(10000, grown.position());
+        assertSame(grown, builder.encodeToBuffer("short again"));
+    }
+
+    @Test
+    public void unmappableCharactersAreReplaced() {
+        EventBatchBuilder builder = new EventBatchBuilder(Charsets.US_ASCII);
+        assertArrayEquals("a?b".getBytes(Charsets.US_ASCII), builder.encode("a错b"));
+    }
+
+    @Test
+    public void encodingAllocatesOnlyTheBodies() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocation.isThreadAllocatedMemorySupported()
+                && allocation.isThreadAllocatedMemoryEnabled());
+        EventBatchBuilder builder = new EventBatchBuilder(Charsets.UTF_8);
+        String line = repeat("0123456789", 100);
+        int lines = 10000;
+        // 预热，使缓冲区达到所需大小
+        for (int i = 0; i < 1000; i++) {
+            builder.encodeToBuffer(line);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocation.getThreadAllocatedBytes(threadId);
+        int checksum = 0;
+        for (int i = 0; i < lines; i++) {
+            checksum += builder.encodeToBuffer(line).position();
+        }
+        long pooled = allocation.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(lines * line.length(), checksum);
+        // 缓冲区复用，每行只分配CharBuffer包装对象，远小于行本身
+        assertTrue("encodeToBuffer allocated " + pooled + " bytes", pooled < (long) lines * line.length() / 4);
+
+        byte[][] bodies = new byte[lines][];
+        before = allocation.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < lines; i++) {
+            bodies[i] = builder.encode(line);
+        }
+        long copied = allocation.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(line.length(), bodies[lines - 1].length);
+        // 每行只多分配一个与行等长的body数组
+        assertTrue("encode allocated " + copied + " bytes", copied < (long) lines * line.length() * 5 / 4);
+        assertTrue(Arrays.equals(bodies[0], bodies[lines - 1]));
+    }
+}
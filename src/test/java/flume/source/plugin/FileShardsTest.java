@@ -0,0 +1,142 @@
+package flume.source.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileShardsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FileShards> opened = new ArrayList<FileShards>();
+    private String leaseDirectory;
+
+    @Before
+    public void create() {
+        leaseDirectory = folder.getRoot().getPath() + "/leases";
+    }
+
+    @After
+    public void close() {
+        for (FileShards shards : opened) {
+            shards.close();
+        }
+    }
+
+    private FileShards lease(String owner, long probeMillis) throws IOException {
+        FileShards shards = new FileShards(ShardMode.LEASE, 0, 0, leaseDirectory, probeMillis, owner);
+        opened.add(shards);
+        return shards;
+    }
+
+    @Test
+    public void hashShardsSplitTheInodes() throws IOException {
+        FileShards first = new FileShards(ShardMode.HASH, 3, 0, null, 0, "a");
+        FileShards second = new FileShards(ShardMode.HASH, 3, 1, null, 0, "b");
+        for (int inode = 0; inode < 30; inode++) {
+            assertTrue(first.accept(inode) ^ second.accept(inode) ^ (inode % 3 == 2));
+        }
+        assertEquals(0, second.acquire(4, "x.log", 100));
+        assertEquals(-1, first.acquire(4, "x.log", 100));
+        // 无法获取inode的文件只由第0个source读取
+        assertTrue(first.accept(-1));
+        assertFalse(second.accept(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hashIndexMustBeInTheShardCount() throws IOException {
+        new FileShards(ShardMode.HASH, 2, 2, null, 0, "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void leaseNeedsADirectory() throws IOException {
+        new FileShards(ShardMode.LEASE, 0, 0, "", 0, "a");
+    }
+
+    @Test
+    public void heldLeaseIsTakenOverAtTheSavedOffset() throws IOException {
+        FileShards first = lease("a", 0);
+        FileShards second = lease("b", 0);
+        assertTrue(second.accept(7));
+        assertEquals(0, first.acquire(7, "x.log", 100));
+        assertTrue(first.accept(7));
+        assertFalse(second.accept(7));
+        assertEquals(-1, second.acquire(7, "x.log", 100));
+        first.saved(7, "x.log", 12, 80);
+        // 持有者停止后租约被接管，从记录的offset继续
+        first.close();
+        assertTrue(second.accept(7));
+        assertEquals(12, second.acquire(7, "x.log", 100));
+    }
+
+    @Test
+    public void leaseBeyondTheFileLengthIsIgnored() throws IOException {
+        FileShards first = lease("a", 0);
+        first.acquire(7, "x.log", 100);
+        first.saved(7, "x.log", 12, 80);
+        first.close();
+        assertEquals(0, lease("b", 0).acquire(7, "y.log", 50));
+    }
+
+    @Test
+    public void finishedLeaseIsReleasedOnceTheOffsetIsSaved() throws IOException {
+        FileShards first = lease("a", 0);
+        FileShards second = lease("b", 0);
+        first.acquire(7, "x.log", 100);
+        first.finish(7, 20, 100);
+        assertEquals(-1, second.acquire(7, "x.log", 100));
+        first.offsetSaved();
+        assertEquals(20, second.acquire(7, "x.log", 100));
+    }
+
+    @Test
+    public void acquireAgainKeepsAFinishedLease() throws IOException {
+        FileShards first = lease("a", 0);
+        FileShards second = lease("b", 0);
+        first.acquire(7, "x.log", 100);
+        first.finish(7, 20, 100);
+        // 文件继续增长，读完前重新获取不释放租约
+        assertEquals(20, first.acquire(7, "x.log", 150));
+        first.offsetSaved();
+        assertEquals(-1, second.acquire(7, "x.log", 150));
+    }
+
+    @Test
+    public void freeLeasesAreReportedOnceUntilUpdated() throws IOException {
+        FileShards first = lease("a", 0);
+        FileShards second = lease("b", 0);
+        first.acquire(7, "x.log", 100);
+        first.saved(7, "x.log", 3, 40);
+        assertTrue(second.orphans().isEmpty());
+        first.close();
+        List<FileShards.Orphan> orphans = second.orphans();
+        assertEquals(1, orphans.size());
+        assertEquals(7, orphans.get(0).getInode());
+        assertEquals("x.log", orphans.get(0).getFileName());
+        assertEquals(40, orphans.get(0).getPosition());
+        assertTrue(second.orphans().isEmpty());
+    }
+
+    @Test
+    public void busyAndFreeAnswersAreKeptForTheProbeInterval() throws IOException {
+        FileShards first = lease("a", 60000);
+        FileShards second = lease("b", 60000);
+        assertTrue(second.accept(7));
+        first.acquire(7, "x.log", 100);
+        // 检查间隔内仍视为未被持有，acquire时才真正检查
+        assertTrue(second.accept(7));
+        assertEquals(-1, second.acquire(7, "x.log", 100));
+        first.close();
+        assertFalse(second.accept(7));
+    }
+}
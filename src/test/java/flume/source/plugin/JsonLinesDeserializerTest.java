@@ -0,0 +1,111 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonLinesDeserializerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LineReader reader;
+    private JsonLinesDeserializer deserializer;
+
+    @After
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private void open(String content, int maxRecordLength) throws IOException {
+        file = folder.newFile();
+        append(content);
+        reader = new LineReader(file, 8);
+        // 与FileInfo中一致，不缓存超过maxRecordLength的行
+        reader.setMaxLineLength(maxRecordLength, OversizeLinePolicy.SKIP, false);
+        deserializer = new JsonLinesDeserializer(reader, maxRecordLength);
+    }
+
+    private void append(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(content.getBytes(Charsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertRecord(String expected, boolean acceptPartial) throws IOException {
+        Event event = deserializer.readEvent(acceptPartial);
+        assertEquals(expected, event == null ? null : new String(event.getBody(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void prettyPrintedValueIsOneRecord() throws IOException {
+        open("{\"a\":1}\n\n{\n  \"b\": [1,\n 2],\n  \"c\": \"}\"\n}\n", 1024);
+        assertRecord("{\"a\":1}", false);
+        assertRecord("{\n  \"b\": [1,\n 2],\n  \"c\": \"}\"\n}", false);
+        assertRecord(null, false);
+    }
+
+    @Test
+    public void unfinishedValueIsReadWhenComplete() throws IOException {
+        open("{\"a\":1}\n{\n \"b\":", 1024);
+        assertRecord("{\"a\":1}", false);
+        long position = deserializer.getPosition();
+        assertRecord(null, false);
+        assertEquals(position, deserializer.getPosition());
+        append(" 2\n}\n");
+        assertRecord("{\n \"b\": 2\n}", false);
+    }
+
+    @Test
+    public void lastValueWithoutLineEndIsReadWhenAccepted() throws IOException {
+        open("{\"a\":1}\n{\"b\":2}", 1024);
+        assertRecord("{\"a\":1}", false);
+        assertRecord(null, false);
+        assertRecord("{\"b\":2}", true);
+        assertRecord(null, true);
+    }
+
+    @Test
+    public void unclosedValueAtEndOfFinishedFileIsReturned() throws IOException {
+        open("{\n \"a\": 1\n", 1024);
+        assertRecord(null, false);
+        assertRecord("{\n \"a\": 1", true);
+    }
+
+    @Test
+    public void oversizedLineIsSkipped() throws IOException {
+        open("{\"big\":\"0123456789012345678901234567890123456789\"}\n{\"a\":1}\n", 16);
+        assertRecord("{\"a\":1}", false);
+        assertEquals(file.length(), deserializer.getPosition());
+    }
+
+    @Test
+    public void oversizedValueIsDroppedUpToItsEnd() throws IOException {
+        open("{\n\"a\":\"0123\",\n\"b\":\"4567\"\n}\n[1]\n", 16);
+        assertRecord("[1]", false);
+    }
+
+    @Test
+    public void seekRereadsFromRecordStart() throws IOException {
+        open("[1]\n[2]\n", 1024);
+        assertRecord("[1]", false);
+        long position = deserializer.getPosition();
+        assertRecord("[2]", false);
+        deserializer.seek(position);
+        assertRecord("[2]", false);
+    }
+}
@@ -0,0 +1,109 @@
+package flume.source.plugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 20; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10, histogram.getValueAtPercentile(50));
+        assertEquals(19, histogram.getValueAtPercentile(95));
+        assertEquals(20, histogram.getValueAtPercentile(100));
+        assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    public void bucketsKeepRelativePrecision() {
+        long previous = -1;
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(62) < 1 ? random.nextInt(64) : (long) (Math.pow(2, random.nextDouble() * 47));
+            int index = LatencyHistogram.index(value);
+            long upper = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(value + " > " + upper, upper >= value);
+            // 子桶宽度不超过值的1/32
+            assertTrue(value + " -> " + upper, upper - value <= value / 32);
+        }
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void percentileIsCappedByMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getValueAtPercentile(50));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void addAndReset() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(30);
+        second.record(20);
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(30, first.getMax());
+        assertEquals(20, first.getValueAtPercentile(50));
+        first.reset();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getMax());
+        assertEquals(2, second.getCount());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int base = t * 1000;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(base + i % 1000);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(3999, histogram.getMax());
+    }
+}
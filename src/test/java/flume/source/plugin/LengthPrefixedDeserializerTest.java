@@ -0,0 +1,100 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LengthPrefixedDeserializerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LineReader reader;
+    private LengthPrefixedDeserializer deserializer;
+
+    @After
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private void open(int maxRecordLength) throws IOException {
+        file = folder.newFile();
+        reader = new LineReader(file, 8);
+        deserializer = new LengthPrefixedDeserializer(reader, maxRecordLength);
+    }
+
+    private void append(int length, String body) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+        try {
+            out.writeInt(length);
+            out.write(body.getBytes(Charsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertRecord(String expected) throws IOException {
+        Event event = deserializer.readEvent(false);
+        assertEquals(expected, event == null ? null : new String(event.getBody(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void recordsMayContainLineEnds() throws IOException {
+        open(1024);
+        append(5, "a\nb\nc");
+        append(0, "");
+        append(3, "xyz");
+        assertRecord("a\nb\nc");
+        assertRecord("");
+        assertRecord("xyz");
+        assertRecord(null);
+        assertEquals(file.length(), deserializer.getPosition());
+    }
+
+    @Test
+    public void unfinishedRecordIsReadWhenComplete() throws IOException {
+        open(1024);
+        append(3, "ab");
+        assertRecord(null);
+        assertEquals(0, deserializer.getPosition());
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write('c');
+        } finally {
+            out.close();
+        }
+        assertRecord("abc");
+    }
+
+    @Test
+    public void lengthOutOfRangeStopsTheFileUntilSeek() throws IOException {
+        open(4);
+        append(2, "ok");
+        append(5, "large");
+        append(2, "no");
+        assertRecord("ok");
+        long corrupt = deserializer.getPosition();
+        assertRecord(null);
+        assertTrue(deserializer.isCorrupt());
+        assertEquals(corrupt, deserializer.getPosition());
+        assertNull(deserializer.readEvent(true));
+        deserializer.seek(0);
+        assertFalse(deserializer.isCorrupt());
+        assertRecord("ok");
+    }
+}
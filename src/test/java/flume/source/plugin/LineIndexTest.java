@@ -0,0 +1,113 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** index every interval lines of 10 byte lines **/
+    private static LineIndex indexed(int interval, long lines) {
+        LineIndex index = new LineIndex(interval);
+        index.use(7);
+        for (long line = 1; line <= lines; line++) {
+            index.record(line, line * 10);
+        }
+        return index;
+    }
+
+    @Test
+    public void everyIntervalLinesAreIndexed() {
+        LineIndex index = indexed(100, 1000);
+        assertEquals(10, index.size());
+        assertEquals(0, index.floorLine(99));
+        assertEquals(500, index.floorLine(567));
+        assertEquals(5000, index.positionOf(500));
+        assertEquals(0, index.positionOf(0));
+        // 超出已索引范围时取最后一项
+        assertEquals(1000, index.floorLine(100000));
+    }
+
+    @Test
+    public void floorLineAtPosition() {
+        LineIndex index = indexed(100, 1000);
+        assertEquals(0, index.floorLineAtPosition(999));
+        assertEquals(100, index.floorLineAtPosition(1000));
+        assertEquals(300, index.floorLineAtPosition(3999));
+        assertEquals(1000, index.floorLineAtPosition(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void linesAfterAGapAreNotIndexed() {
+        LineIndex index = new LineIndex(10);
+        index.record(10, 100);
+        index.record(30, 300);
+        assertEquals(1, index.size());
+        index.record(20, 200);
+        index.record(30, 300);
+        assertEquals(3, index.size());
+        // 重复记录同一行不改变索引
+        index.record(30, 999);
+        assertEquals(3, index.size());
+        assertEquals(300, index.positionOf(30));
+    }
+
+    @Test
+    public void anotherFileDropsTheEntries() {
+        LineIndex index = indexed(10, 100);
+        index.use(7);
+        assertEquals(10, index.size());
+        index.use(8);
+        assertEquals(0, index.size());
+        assertEquals(8, index.getInode());
+        assertTrue(index.isDirty());
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        File file = new File(folder.getRoot(), "lineindex");
+        LineIndex index = indexed(100, 100000);
+        assertTrue(index.isDirty());
+        index.save(file);
+        assertFalse(index.isDirty());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        LineIndex loaded = new LineIndex(100);
+        assertTrue(loaded.load(file));
+        assertEquals(7, loaded.getInode());
+        assertEquals(1000, loaded.size());
+        assertEquals(index.positionOf(56700), loaded.positionOf(56700));
+        assertFalse(loaded.isDirty());
+        // 加载后可以继续记录
+        loaded.record(100100, 1001000);
+        assertEquals(1001, loaded.size());
+    }
+
+    @Test
+    public void indexOfAnotherIntervalIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "lineindex");
+        indexed(100, 1000).save(file);
+        LineIndex other = new LineIndex(50);
+        assertFalse(other.load(file));
+        assertEquals(0, other.size());
+        assertFalse(new LineIndex(100).load(new File(folder.getRoot(), "missing")));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptIndexFails() throws IOException {
+        File file = new File(folder.getRoot(), "lineindex");
+        Files.write("7$100\n1000\nxyz\n", file, Charsets.UTF_8);
+        new LineIndex(100).load(file);
+    }
+}
@@ -0,0 +1,115 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinePackerTest {
+    private static final String TIMESTAMP = "timestamp";
+    private static final String ROUTE = "route";
+
+    private static void add(LinePacker packer, String line, long lineOffset, long timestamp, String route) {
+        byte[] bytes = line.getBytes(Charsets.UTF_8);
+        packer.add(bytes, 0, bytes.length, lineOffset, timestamp, route);
+    }
+
+    private static void addPiece(LinePacker packer, String piece, long lineOffset, boolean firstPiece) {
+        byte[] bytes = piece.getBytes(Charsets.UTF_8);
+        packer.addPiece(bytes, 0, bytes.length, lineOffset, -1, null, firstPiece);
+    }
+
+    private static String header(Event event, String name) {
+        return event.getHeaders().get(name);
+    }
+
+    @Test
+    public void newlinePackHoldsLinesAndOffsets() {
+        LinePacker packer = new LinePacker(PackFormat.NEWLINE, 10, 0);
+        assertNull(packer.flush(TIMESTAMP, ROUTE));
+        add(packer, "a", 5, -1, "r");
+        add(packer, "", 6, 100, "r");
+        add(packer, "ccc", 7, 200, "r");
+        Event pack = packer.flush(TIMESTAMP, ROUTE);
+        assertEquals("a\n\nccc", new String(pack.getBody(), Charsets.UTF_8));
+        assertEquals("3", header(pack, LinePacker.HEADER_LINE_COUNT));
+        assertEquals("5", header(pack, LinePacker.HEADER_FIRST_OFFSET));
+        assertEquals("7", header(pack, LinePacker.HEADER_LAST_OFFSET));
+        // 第一个已知的时间戳
+        assertEquals("100", header(pack, TIMESTAMP));
+        assertEquals("r", header(pack, ROUTE));
+        assertTrue(packer.isEmpty());
+    }
+
+    @Test
+    public void lengthPrefixedPackFramesEachLine() {
+        LinePacker packer = new LinePacker(PackFormat.LENGTH_PREFIXED, 10, 0);
+        add(packer, "ab", 0, -1, null);
+        add(packer, "a\nb", 1, -1, null);
+        ByteBuffer body = ByteBuffer.wrap(packer.flush(TIMESTAMP, ROUTE).getBody());
+        assertEquals(2, body.getInt());
+        body.position(body.position() + 2);
+        assertEquals(3, body.getInt());
+        assertEquals('a', body.get());
+        body.position(body.position() + 2);
+        assertFalse(body.hasRemaining());
+    }
+
+    @Test
+    public void packIsFullByLinesOrBytes() {
+        LinePacker byLines = new LinePacker(PackFormat.NEWLINE, 2, 0);
+        add(byLines, "a", 0, -1, null);
+        assertFalse(byLines.isFull());
+        add(byLines, "b", 1, -1, null);
+        assertTrue(byLines.isFull());
+
+        LinePacker byBytes = new LinePacker(PackFormat.NEWLINE, 100, 4);
+        add(byBytes, "ab", 0, -1, null);
+        assertFalse(byBytes.isFull());
+        add(byBytes, "c", 1, -1, null);
+        assertTrue(byBytes.isFull());
+    }
+
+    @Test
+    public void packHasOneRoute() {
+        LinePacker packer = new LinePacker(PackFormat.NEWLINE, 10, 0);
+        assertTrue(packer.hasRoute(null));
+        add(packer, "a", 0, -1, "x");
+        assertTrue(packer.hasRoute("x"));
+        assertFalse(packer.hasRoute("y"));
+        assertFalse(packer.hasRoute(null));
+    }
+
+    @Test
+    public void piecesOfSplitLineArePackedAloneAndCountTheLineOnce() {
+        LinePacker packer = new LinePacker(PackFormat.NEWLINE, 10, 0);
+        addPiece(packer, "abcd", 3, true);
+        assertTrue(packer.isFull());
+        Event first = packer.flush(TIMESTAMP, ROUTE);
+        assertEquals("abcd", new String(first.getBody(), Charsets.UTF_8));
+        assertEquals("1", header(first, LinePacker.HEADER_LINE_COUNT));
+        assertEquals("3", header(first, LinePacker.HEADER_LAST_OFFSET));
+        addPiece(packer, "ef", 3, false);
+        Event last = packer.flush(TIMESTAMP, ROUTE);
+        assertEquals("ef", new String(last.getBody(), Charsets.UTF_8));
+        assertEquals("0", header(last, LinePacker.HEADER_LINE_COUNT));
+        assertEquals("3", header(last, LinePacker.HEADER_FIRST_OFFSET));
+        // 分段之后恢复正常打包
+        add(packer, "g", 4, -1, null);
+        assertFalse(packer.isFull());
+        assertEquals("1", header(packer.flush(TIMESTAMP, ROUTE), LinePacker.HEADER_LINE_COUNT));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pieceDoesNotJoinOpenPack() {
+        LinePacker packer = new LinePacker(PackFormat.NEWLINE, 10, 0);
+        add(packer, "a", 0, -1, null);
+        addPiece(packer, "abcd", 1, true);
+    }
+}
@@ -0,0 +1,154 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinePipelineTest {
+    private static final Pattern ANY = Pattern.compile(".*");
+    private static final Pattern NOTHING = Pattern.compile("a^");
+
+    private LinePipeline pipeline;
+
+    @After
+    public void close() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private LinePipeline open(int threads, Charset inputCharset, boolean buildEvents, boolean hashLines) {
+        RouteRules routes = new RouteRules(Arrays.asList(".*ERROR.*"), Arrays.asList("error"), "other");
+        pipeline = new LinePipeline(threads, 64, inputCharset, Charsets.UTF_8, routes, "route", "timestamp",
+                buildEvents, hashLines);
+        pipeline.setContentRules(ANY, NOTHING, null);
+        return pipeline;
+    }
+
+    private static void add(LinePipeline.Chunk chunk, String text, Charset charset, long position) {
+        LineBuffer line = new LineBuffer(16);
+        byte[] bytes = text.getBytes(charset);
+        line.append(bytes, 0, bytes.length);
+        chunk.add(false, LineReader.Result.LINE, line, position);
+    }
+
+    @Test
+    public void chunksComeBackInFileOrder() throws InterruptedException, ExecutionException {
+        open(4, Charsets.UTF_8, true, false);
+        List<Future<LinePipeline.Chunk>> futures = new ArrayList<Future<LinePipeline.Chunk>>();
+        int lines = 0;
+        long position = 0;
+        for (int c = 0; c < 50; c++) {
+            LinePipeline.Chunk chunk = pipeline.newChunk(position, 20);
+            while (!chunk.isFull()) {
+                String text = "line " + lines++;
+                position += text.length() + 1;
+                add(chunk, text, Charsets.UTF_8, position);
+            }
+            futures.add(pipeline.submit(chunk));
+        }
+        int expected = 0;
+        for (Future<LinePipeline.Chunk> future : futures) {
+            LinePipeline.Chunk chunk = future.get();
+            for (int i = 0; i < chunk.size(); i++) {
+                assertEquals(LinePipeline.KEPT, chunk.getState(i));
+                assertEquals("line " + expected++, new String(chunk.getEvent(i).getBody(), Charsets.UTF_8));
+            }
+        }
+        assertEquals(lines, expected);
+    }
+
+    @Test
+    public void linesAreFilteredRoutedAndStamped() throws Exception {
+        open(2, Charsets.UTF_8, true, false);
+        pipeline.setContentRules(Pattern.compile("\\d{4}-.*"), Pattern.compile(".*DEBUG.*"),
+                new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "UTC", 0, null, ANY));
+        LinePipeline.Chunk chunk = pipeline.newChunk(100, 8);
+        add(chunk, "2026-10-19 08:00:00 ERROR disk", Charsets.UTF_8, 131);
+        add(chunk, "no date", Charsets.UTF_8, 139);
+        add(chunk, "2026-10-19 08:00:01 DEBUG noise", Charsets.UTF_8, 171);
+        chunk.add(true, LineReader.Result.SKIPPED, new LineBuffer(16), 200);
+        add(chunk, "2026-10-19 08:00:02 INFO ok", Charsets.UTF_8, 228);
+        pipeline.submit(chunk).get();
+
+        assertEquals(100, chunk.startOf(0));
+        assertEquals(171, chunk.startOf(3));
+        assertTrue(chunk.isInsideLine(3));
+        assertFalse(chunk.isInsideLine(4));
+        assertEquals(LinePipeline.KEPT, chunk.getState(0));
+        assertEquals(LinePipeline.FILTERED, chunk.getState(1));
+        assertEquals(LinePipeline.FILTERED, chunk.getState(2));
+        assertEquals(LinePipeline.SKIPPED, chunk.getState(3));
+        assertEquals(LinePipeline.KEPT, chunk.getState(4));
+        assertNull(chunk.getEvent(1));
+
+        Event error = chunk.getEvent(0);
+        assertEquals("error", error.getHeaders().get("route"));
+        assertEquals(1792396800000L, chunk.getTimestamp(0));
+        assertEquals("1792396800000", error.getHeaders().get("timestamp"));
+        assertEquals("other", chunk.getRoute(4));
+        assertEquals(1792396802000L, chunk.getTimestamp(4));
+    }
+
+    @Test
+    public void submittedChunkKeepsItsContentRules() throws Exception {
+        open(1, Charsets.UTF_8, true, false);
+        LinePipeline.Chunk before = pipeline.newChunk(0, 1);
+        add(before, "INFO", Charsets.UTF_8, 5);
+        // 更新规则只影响之后创建的块
+        pipeline.setContentRules(ANY, Pattern.compile("INFO"), null);
+        LinePipeline.Chunk after = pipeline.newChunk(5, 1);
+        add(after, "INFO", Charsets.UTF_8, 10);
+        assertEquals(LinePipeline.KEPT, pipeline.submit(before).get().getState(0));
+        assertEquals(LinePipeline.FILTERED, pipeline.submit(after).get().getState(0));
+    }
+
+    @Test
+    public void packModeBuildsBodiesAndHashes() throws Exception {
+        Charset gbk = Charset.forName("GBK");
+        open(2, gbk, false, true);
+        LinePipeline.Chunk chunk = pipeline.newChunk(0, 2);
+        add(chunk, "错误 ERROR", gbk, 10);
+        add(chunk, "正常", gbk, 15);
+        pipeline.submit(chunk).get();
+        for (int i = 0; i < 2; i++) {
+            assertNull(chunk.getEvent(i));
+            assertEquals(-1, chunk.getTimestamp(i));
+        }
+        // 输入与输出编码不同时body按输出编码重新编码
+        assertArrayEquals("错误 ERROR".getBytes(Charsets.UTF_8), chunk.getBody(0));
+        assertEquals("error", chunk.getRoute(0));
+        assertEquals(DuplicateSuppressor.hash(CharBuffer.wrap("正常")), chunk.getHash(1));
+    }
+
+    @Test
+    public void smallBatchesAreSpreadOverTheWorkers() {
+        open(4, Charsets.UTF_8, true, false);
+        assertEquals(4, pipeline.getThreads());
+        assertEquals(64, pipeline.chunkLines(10000));
+        assertEquals(50, pipeline.chunkLines(200));
+        // 不小于每块的最少行数
+        assertEquals(32, pipeline.chunkLines(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void threadsMustBePositive() {
+        new LinePipeline(0, 64, Charsets.UTF_8, Charsets.UTF_8, null, "route", "timestamp", true, false);
+    }
+}
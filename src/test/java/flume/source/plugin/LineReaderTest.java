@@ -0,0 +1,150 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LineBuffer line = new LineBuffer(16);
+    private File file;
+    private LineReader reader;
+
+    @After
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private LineReader open(String content, int bufferSize) throws IOException {
+        file = folder.newFile();
+        append(content);
+        reader = new LineReader(file, bufferSize);
+        return reader;
+    }
+
+    private void append(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(content.getBytes(Charsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertLine(LineReader.Result expected, String text, boolean acceptPartial) throws IOException {
+        assertEquals(expected, reader.readLine(line, acceptPartial));
+        assertEquals(text, new String(line.toByteArray(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void partialLineIsKeptUntilItIsComplete() throws IOException {
+        open("first\nsec", 8192);
+        assertLine(LineReader.Result.LINE, "first", false);
+        assertEquals(LineReader.Result.EOF, reader.readLine(line, false));
+        assertEquals(6, reader.getPosition());
+        append("ond\n");
+        assertLine(LineReader.Result.LINE, "second", false);
+        assertEquals(13, reader.getPosition());
+    }
+
+    @Test
+    public void partialLineIsReadWhenAccepted() throws IOException {
+        open("first\nlast", 8192);
+        assertLine(LineReader.Result.LINE, "first", true);
+        assertLine(LineReader.Result.LINE, "last", true);
+        assertEquals(LineReader.Result.EOF, reader.readLine(line, true));
+    }
+
+    @Test
+    public void linesAcrossBufferBoundaries() throws IOException {
+        open("0123456789\nab\n\nxyz\n", 4);
+        assertLine(LineReader.Result.LINE, "0123456789", false);
+        assertEquals(11, reader.getPosition());
+        assertLine(LineReader.Result.LINE, "ab", false);
+        assertLine(LineReader.Result.LINE, "", false);
+        assertLine(LineReader.Result.LINE, "xyz", false);
+        assertEquals(LineReader.Result.EOF, reader.readLine(line, false));
+        reader.seek(11);
+        assertLine(LineReader.Result.LINE, "ab", false);
+    }
+
+    @Test
+    public void carriageReturnBeforeLineFeedIsRemoved() throws IOException {
+        open("a\r\nb\rc\n\r\n", 8192);
+        assertLine(LineReader.Result.LINE, "a", false);
+        // 单独的CR不结束一行
+        assertLine(LineReader.Result.LINE, "b\rc", false);
+        assertLine(LineReader.Result.LINE, "", false);
+    }
+
+    @Test
+    public void truncatedLineDropsItsRestAfterSeekBack() throws IOException {
+        open("abcdefghij\nxy\n", 4);
+        reader.setMaxLineLength(4, OversizeLinePolicy.TRUNCATE, true);
+        assertFalse(reader.isInsideLine());
+        assertLine(LineReader.Result.TRUNCATED, "abcd", false);
+        long position = reader.getPosition();
+        boolean insideLine = reader.isInsideLine();
+        assertTrue(insideLine);
+        assertLine(LineReader.Result.LINE, "xy", false);
+        reader.seek(position, insideLine);
+        assertLine(LineReader.Result.LINE, "xy", false);
+        assertEquals(14, reader.getPosition());
+    }
+
+    @Test
+    public void skippedLineIsReportedAgainAfterSeekBack() throws IOException {
+        open("abcdefghij\nxy\n", 4);
+        reader.setMaxLineLength(4, OversizeLinePolicy.SKIP, true);
+        assertEquals(LineReader.Result.SKIPPED, reader.readLine(line, false));
+        assertEquals(11, reader.getPosition());
+        assertLine(LineReader.Result.LINE, "xy", false);
+        reader.seek(0);
+        assertEquals(LineReader.Result.SKIPPED, reader.readLine(line, false));
+        assertLine(LineReader.Result.LINE, "xy", false);
+    }
+
+    @Test
+    public void unfinishedOversizedLineIsDroppedWhenComplete() throws IOException {
+        open("abcdefghij", 4);
+        reader.setMaxLineLength(4, OversizeLinePolicy.TRUNCATE, true);
+        assertLine(LineReader.Result.TRUNCATED, "abcd", false);
+        assertEquals(LineReader.Result.EOF, reader.readLine(line, false));
+        append("klm\nxy\n");
+        assertLine(LineReader.Result.LINE, "xy", false);
+    }
+
+    @Test
+    public void lineOfMaxLengthIsNotOversized() throws IOException {
+        open("abcd\nefghi\n", 8192);
+        reader.setMaxLineLength(4, OversizeLinePolicy.SPLIT, true);
+        assertLine(LineReader.Result.LINE, "abcd", false);
+        assertLine(LineReader.Result.CHUNK, "efgh", false);
+        assertLine(LineReader.Result.LAST_CHUNK, "i", false);
+    }
+
+    @Test
+    public void asciiCompatibleCharsets() {
+        assertTrue(LineReader.isAsciiCompatible(Charsets.UTF_8));
+        assertTrue(LineReader.isAsciiCompatible(Charsets.ISO_8859_1));
+        assertTrue(LineReader.isAsciiCompatible(Charset.forName("GBK")));
+        assertFalse(LineReader.isAsciiCompatible(Charsets.UTF_16));
+        assertFalse(LineReader.isAsciiCompatible(Charsets.UTF_16LE));
+        assertFalse(LineReader.isAsciiCompatible(Charset.forName("UTF-32")));
+    }
+}
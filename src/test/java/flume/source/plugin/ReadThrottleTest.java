@@ -0,0 +1,62 @@
+package flume.source.plugin;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadThrottleTest {
+    private final File first = new File("first.log");
+    private final File second = new File("second.log");
+
+    private static long millisOf(ReadThrottle throttle, File file, long bytes, int lines)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            throttle.acquire(file, bytes);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void unlimitedThrottleDoesNotWait() throws InterruptedException {
+        ReadThrottle throttle = new ReadThrottle(0, 0, 0, 0, null);
+        assertFalse(throttle.isEnabled());
+        assertTrue(millisOf(throttle, first, 1 << 20, 10000) < 1000);
+    }
+
+    @Test
+    public void sourceEventLimitBlocksOnceTheBucketIsEmpty() throws InterruptedException {
+        ReadThrottle throttle = new ReadThrottle(0, 100, 0, 0, null);
+        assertTrue(throttle.isEnabled());
+        // 桶中有一秒的token
+        assertTrue(millisOf(throttle, first, 10, 100) < 100);
+        assertTrue(millisOf(throttle, first, 10, 10) >= 80);
+    }
+
+    @Test
+    public void sourceByteLimitCountsLineBytes() throws InterruptedException {
+        ReadThrottle throttle = new ReadThrottle(1000, 0, 0, 0, null);
+        throttle.acquire(first, 1000);
+        assertTrue(millisOf(throttle, first, 100, 1) >= 80);
+    }
+
+    @Test
+    public void fileLimitStartsOverForEachFile() throws InterruptedException {
+        ReadThrottle throttle = new ReadThrottle(0, 0, 0, 100, null);
+        assertTrue(millisOf(throttle, first, 10, 100) < 100);
+        // 新文件的桶是满的
+        assertTrue(millisOf(throttle, second, 10, 100) < 100);
+        assertTrue(millisOf(throttle, second, 10, 10) >= 80);
+    }
+
+    @Test
+    public void sourceLimitSpansFiles() throws InterruptedException {
+        ReadThrottle throttle = new ReadThrottle(0, 100, 0, 0, null);
+        assertTrue(millisOf(throttle, first, 10, 100) < 100);
+        assertTrue(millisOf(throttle, second, 10, 10) >= 80);
+    }
+}
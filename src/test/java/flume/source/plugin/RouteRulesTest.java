@@ -0,0 +1,58 @@
+package flume.source.plugin;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RouteRulesTest {
+
+    private static RouteRules rules(String defaultValue) {
+        return new RouteRules(Arrays.asList(".*ERROR.*", ".*WARN.*", ".*(ERROR|WARN).*"),
+                Arrays.asList("error", "warn", "never"), defaultValue);
+    }
+
+    @Test
+    public void firstMatchingRuleWins() {
+        RouteRules rules = rules("other");
+        assertEquals("error", rules.route("2026-10-01 ERROR disk full"));
+        assertEquals("warn", rules.route("2026-10-01 WARN slow"));
+        // 两条规则都匹配时取第一条
+        assertEquals("error", rules.route("WARN then ERROR"));
+        assertEquals("other", rules.route("2026-10-01 INFO ok"));
+    }
+
+    @Test
+    public void patternMustMatchTheWholeLine() {
+        RouteRules rules = new RouteRules(Collections.singletonList("ERROR"),
+                Collections.singletonList("error"), null);
+        assertEquals("error", rules.route("ERROR"));
+        assertNull(rules.route("2026-10-01 ERROR"));
+    }
+
+    @Test
+    public void emptyDefaultMeansNoHeader() {
+        assertNull(rules("").route("INFO"));
+        assertNull(rules(null).route("INFO"));
+    }
+
+    @Test
+    public void copyRoutesIndependently() {
+        RouteRules rules = rules("other");
+        RouteRules copy = rules.copy();
+        StringBuilder line = new StringBuilder("ERROR");
+        assertEquals("error", copy.route(line));
+        assertEquals("other", rules.route("INFO"));
+        line.setLength(0);
+        line.append("WARN");
+        assertEquals("warn", copy.route(line));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void everyPatternNeedsAValue() {
+        new RouteRules(Arrays.asList("a", "b"), Collections.singletonList("x"), null);
+    }
+}
@@ -0,0 +1,104 @@
+package flume.source.plugin;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpoolingDirManagerTest {
+    private static final int FINGERPRINT_BYTES = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private SpoolingDirManager manager;
+
+    @Before
+    public void create() {
+        directory = folder.getRoot();
+        manager = new SpoolingDirManager(directory, Pattern.compile("^$"), null, 0, null, Tracer.NOOP,
+                null, FINGERPRINT_BYTES);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private File found(Optional<FileInfo> fileInfo) throws IOException {
+        assertTrue(fileInfo.isPresent());
+        fileInfo.get().getLineReader().close();
+        return fileInfo.get().getFile();
+    }
+
+    @Test
+    public void fileIsFoundByNameInodeAndFingerprint() throws IOException {
+        File file = write("a.log", "first line of a\n");
+        int inode = manager.getFileInode(file);
+        FileFingerprint fingerprint = manager.getFingerprint(file, inode);
+        assertEquals(file, found(manager.getFileByIdentity("a.log", inode, fingerprint, 0)));
+    }
+
+    @Test
+    public void fileWithReusedInodeIsRejected() throws IOException {
+        File file = write("a.log", "first line of a\n");
+        int inode = manager.getFileInode(file);
+        FileFingerprint deleted = FileFingerprint.of(write("b.log", "content of the deleted file\n"),
+                FINGERPRINT_BYTES);
+        assertTrue(new File(directory, "b.log").delete());
+        // 检查点记录的inode与a.log相同，但内容属于已删除的文件
+        assertFalse(manager.getFileByIdentity("a.log", inode, deleted, 0).isPresent());
+        assertFalse(manager.getFileByIdentity("old.log", inode, deleted, 0).isPresent());
+    }
+
+    @Test
+    public void copyIsFoundByFingerprint() throws IOException {
+        File original = write("a.log", "first line of a\nsecond line\n");
+        int inode = manager.getFileInode(original);
+        FileFingerprint fingerprint = manager.getFingerprint(original, inode);
+        long lastModified = original.lastModified();
+        File copy = new File(directory, "a.log.1");
+        Files.copy(original, copy);
+        assertTrue(original.delete());
+        assertNotEquals(inode, manager.getFileInode(copy));
+        assertEquals(copy, found(manager.getFileByIdentity("a.log", inode, fingerprint, lastModified)));
+    }
+
+    @Test
+    public void checkpointOfShortFileMatchesItAfterItGrew() throws IOException {
+        File file = write("a.log", "short\n");
+        int inode = manager.getFileInode(file);
+        FileFingerprint fingerprint = manager.getFingerprint(file, inode);
+        assertEquals(6, fingerprint.getLength());
+        Files.append("and then a lot more\n", file, Charsets.UTF_8);
+        assertEquals(FINGERPRINT_BYTES, manager.getFingerprint(file, inode).getLength());
+        assertEquals(file, found(manager.getFileByIdentity("a.log", inode, fingerprint, 0)));
+    }
+
+    @Test
+    public void fingerprintIsTakenAgainWhenFileShrinks() throws IOException {
+        File file = write("a.log", "0123456789abcdefXYZ\n");
+        int inode = manager.getFileInode(file);
+        FileFingerprint before = manager.getFingerprint(file, inode);
+        // 原地重写，inode不变
+        Files.write("rewritten\n", file, Charsets.UTF_8);
+        assertEquals(inode, manager.getFileInode(file));
+        FileFingerprint after = manager.getFingerprint(file, inode);
+        assertNotEquals(before, after);
+        assertEquals(FileFingerprint.of(file, FINGERPRINT_BYTES), after);
+    }
+}
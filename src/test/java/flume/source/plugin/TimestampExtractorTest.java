@@ -0,0 +1,101 @@
+package flume.source.plugin;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimestampExtractorTest {
+    private static final Pattern ANY = Pattern.compile(".*");
+
+    private static long millis(String format, String text) throws ParseException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.parse(text).getTime();
+    }
+
+    private static long extract(TimestampExtractor extractor, Pattern filter, String line) {
+        Matcher matcher = filter.matcher(line);
+        assertTrue(matcher.matches());
+        return extractor.extract(line, matcher);
+    }
+
+    @Test
+    public void fixedLayoutAtOffset() throws ParseException {
+        TimestampExtractor extractor = new TimestampExtractor("yyyy-MM-dd HH:mm:ss.SSS", "UTC", 1, null, ANY);
+        assertFalse(extractor.usesFilterGroup());
+        assertEquals(millis("yyyy-MM-dd HH:mm:ss.SSS", "2026-10-19 08:30:15.250"),
+                extract(extractor, ANY, "[2026-10-19 08:30:15.250] INFO started"));
+        // 同一小时内使用缓存的小时起点
+        assertEquals(millis("yyyy-MM-dd HH:mm:ss.SSS", "2026-10-19 08:59:59.999"),
+                extract(extractor, ANY, "[2026-10-19 08:59:59.999] INFO next"));
+        assertEquals(millis("yyyy-MM-dd HH:mm:ss.SSS", "2026-10-19 09:00:00.000"),
+                extract(extractor, ANY, "[2026-10-19 09:00:00.000] INFO next hour"));
+    }
+
+    @Test
+    public void quotedLiteralsInLayout() throws ParseException {
+        TimestampExtractor extractor = new TimestampExtractor("yyyy-MM-dd'T'HH:mm:ss", "UTC", 0, null, ANY);
+        assertEquals(millis("yyyy-MM-dd'T'HH:mm:ss", "2026-02-28T23:00:01"),
+                extract(extractor, ANY, "2026-02-28T23:00:01 message"));
+        assertEquals(-1, extract(extractor, ANY, "2026-02-28 23:00:01 message"));
+    }
+
+    @Test
+    public void invalidDatesAreRejected() {
+        TimestampExtractor extractor = new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "UTC", 0, null, ANY);
+        assertEquals(-1, extract(extractor, ANY, "2026-02-30 10:00:00 no such day"));
+        assertEquals(-1, extract(extractor, ANY, "2026-13-01 10:00:00 no such month"));
+        assertEquals(-1, extract(extractor, ANY, "2026-10-01 24:00:00 no such hour"));
+        assertEquals(-1, extract(extractor, ANY, "short"));
+        assertEquals(-1, extract(extractor, ANY, ""));
+    }
+
+    @Test
+    public void otherLayoutsFallBackToSimpleDateFormat() throws ParseException {
+        TimestampExtractor extractor = new TimestampExtractor("dd/MM/yyyy:HH:mm:ss Z", "UTC", 0,
+                "\\[([^\\]]+)\\]", ANY);
+        assertEquals(millis("dd/MM/yyyy:HH:mm:ss Z", "19/10/2026:08:30:15 +0200"),
+                extract(extractor, ANY, "127.0.0.1 - - [19/10/2026:08:30:15 +0200] \"GET / HTTP/1.1\""));
+        assertEquals(-1, extract(extractor, ANY, "no brackets here"));
+    }
+
+    @Test
+    public void groupOfFilterPatternIsUsed() throws ParseException {
+        Pattern filter = Pattern.compile("^(?<timestamp>\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d) (ERROR|WARN) .*");
+        TimestampExtractor extractor = new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "UTC", 0, null, filter);
+        assertTrue(extractor.usesFilterGroup());
+        assertEquals(millis("yyyy-MM-dd HH:mm:ss", "2026-10-19 08:30:15"),
+                extract(extractor, filter, "2026-10-19 08:30:15 ERROR failed"));
+    }
+
+    @Test
+    public void timestampPatternTakesPrecedenceOverFilterGroup() throws ParseException {
+        Pattern filter = Pattern.compile("(?<timestamp>\\S+) .*");
+        TimestampExtractor extractor = new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "UTC", 0,
+                "at (\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d)", filter);
+        assertFalse(extractor.usesFilterGroup());
+        assertEquals(millis("yyyy-MM-dd HH:mm:ss", "2026-10-19 08:30:15"),
+                extract(extractor, filter, "job done at 2026-10-19 08:30:15"));
+    }
+
+    @Test
+    public void timeZoneIsApplied() {
+        TimestampExtractor utc = new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "UTC", 0, null, ANY);
+        TimestampExtractor shanghai = new TimestampExtractor("yyyy-MM-dd HH:mm:ss", "Asia/Shanghai", 0, null, ANY);
+        String line = "2026-10-19 08:00:00 x";
+        assertEquals(8 * 3600 * 1000L, extract(utc, ANY, line) - extract(shanghai, ANY, line));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void formatIsValidated() {
+        new TimestampExtractor("yyyy-MM-dd qq", "UTC", 0, null, ANY);
+    }
+}
@@ -0,0 +1,49 @@
+package flume.source.plugin;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void fullBucketHoldsOneSecondOfTokens() {
+        TokenBucket bucket = new TokenBucket(1000);
+        assertEquals(0, bucket.reserve(600));
+        assertEquals(0, bucket.reserve(399));
+    }
+
+    @Test
+    public void debtIsPaidBackAtTheRate() {
+        TokenBucket bucket = new TokenBucket(1000);
+        assertEquals(0, bucket.reserve(1000));
+        long waitNanos = bucket.reserve(500);
+        // 欠500个token，按每秒1000个约需0.5秒，期间已补充的token使等待略短
+        assertTrue("wait " + waitNanos, waitNanos > TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue("wait " + waitNanos, waitNanos <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void moreThanCapacityMayBeTakenAtOnce() {
+        TokenBucket bucket = new TokenBucket(100);
+        long waitNanos = bucket.reserve(300);
+        assertTrue("wait " + waitNanos, waitNanos > TimeUnit.MILLISECONDS.toNanos(1900));
+        assertTrue("wait " + waitNanos, bucket.reserve(1) > waitNanos);
+    }
+
+    @Test
+    public void tokensAreRefilledOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.reserve(1000);
+        Thread.sleep(50);
+        assertEquals(0, bucket.reserve(40));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new TokenBucket(0);
+    }
+}